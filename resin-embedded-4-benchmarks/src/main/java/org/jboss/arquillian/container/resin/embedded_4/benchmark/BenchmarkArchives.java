@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.ByteArrayAsset;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+
+/**
+ * Builds web archives of a given shape for the benchmarks. Contents are
+ * generated from a fixed seed, so equal shapes give equal archives.
+ * 
+ * @version $Revision: $
+ */
+final class BenchmarkArchives {
+  private static final int CLASS_SIZE = 2048;
+
+  private BenchmarkArchives()
+  {
+  }
+
+  /**
+   * Creates a web archive with the given number of generated classes,
+   * WEB-INF/lib JARs of the given size in KB and servlets mapped in web.xml.
+   */
+  static WebArchive create(String name, int classCount, int libraryCount,
+                           int librarySize, int servletCount)
+  {
+    Random random = new Random(42);
+    WebArchive archive = ShrinkWrap.create(WebArchive.class, name + ".war");
+
+    archive.addClass(BenchmarkServlet.class);
+
+    for (int i = 0; i < classCount; i++) {
+      String className = "benchmark/Generated" + i;
+
+      archive.add(new ByteArrayAsset(createClass(className, CLASS_SIZE)), "WEB-INF/classes/" + className + ".class");
+    }
+
+    for (int i = 0; i < libraryCount; i++) {
+      // Random content does not compress, like the classes in real JARs.
+      byte[] content = new byte[librarySize * 1024];
+      random.nextBytes(content);
+
+      JavaArchive library = ShrinkWrap.create(JavaArchive.class, "library-" + i + ".jar");
+      library.add(new ByteArrayAsset(content), "content.bin");
+
+      archive.addAsLibrary(library);
+    }
+
+    archive.setWebXML(new StringAsset(createWebXml(servletCount)));
+
+    return archive;
+  }
+
+  private static String createWebXml(int servletCount)
+  {
+    StringBuilder xml = new StringBuilder();
+
+    xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    xml.append("<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"3.0\" metadata-complete=\"true\">\n");
+
+    for (int i = 0; i < servletCount; i++) {
+      xml.append("  <servlet>\n");
+      xml.append("    <servlet-name>benchmark-").append(i).append("</servlet-name>\n");
+      xml.append("    <servlet-class>").append(BenchmarkServlet.class.getName()).append("</servlet-class>\n");
+      xml.append("    <load-on-startup>1</load-on-startup>\n");
+      xml.append("  </servlet>\n");
+      xml.append("  <servlet-mapping>\n");
+      xml.append("    <servlet-name>benchmark-").append(i).append("</servlet-name>\n");
+      xml.append("    <url-pattern>/benchmark-").append(i).append("</url-pattern>\n");
+      xml.append("  </servlet-mapping>\n");
+    }
+
+    xml.append("</web-app>\n");
+
+    return xml.toString();
+  }
+
+  /**
+   * Creates a valid, empty class file padded with an unused constant to
+   * roughly the given size.
+   */
+  private static byte[] createClass(String className, int size)
+  {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(size + 64);
+      DataOutputStream out = new DataOutputStream(bytes);
+
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(49);
+
+      // Constant pool: this class, its name, the super class, its name and
+      // the padding.
+      out.writeShort(6);
+      out.writeByte(7);
+      out.writeShort(2);
+      out.writeByte(1);
+      out.writeUTF(className);
+      out.writeByte(7);
+      out.writeShort(4);
+      out.writeByte(1);
+      out.writeUTF("java/lang/Object");
+      out.writeByte(1);
+      out.writeUTF(createPadding(size));
+
+      out.writeShort(0x0021);
+      out.writeShort(1);
+      out.writeShort(3);
+
+      // No interfaces, fields, methods nor attributes.
+      out.writeShort(0);
+      out.writeShort(0);
+      out.writeShort(0);
+      out.writeShort(0);
+
+      out.close();
+
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String createPadding(int size)
+  {
+    StringBuilder padding = new StringBuilder(size);
+
+    for (int i = 0; i < size; i++) {
+      padding.append((char) ('a' + i % 26));
+    }
+
+    return padding.toString();
+  }
+}
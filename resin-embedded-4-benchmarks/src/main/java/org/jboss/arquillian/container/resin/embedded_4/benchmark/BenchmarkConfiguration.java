@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4.benchmark;
+
+import org.jboss.arquillian.container.resin.embedded_4.ResinEmbeddedConfiguration;
+
+/**
+ * Container configuration shared by the benchmarks.
+ * 
+ * @version $Revision: $
+ */
+final class BenchmarkConfiguration {
+  private BenchmarkConfiguration()
+  {
+  }
+
+  static ResinEmbeddedConfiguration create(String profile, String deploymentMode)
+  {
+    ResinEmbeddedConfiguration configuration = new ResinEmbeddedConfiguration();
+
+    // Lets forks run side by side.
+    configuration.setHttpPort(0);
+    configuration.setProfile(profile);
+    configuration.setDeploymentMode(deploymentMode);
+    configuration.validate();
+
+    return configuration;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.arquillian.container.resin.embedded_4.ResinEmbeddedConfiguration;
+import org.jboss.arquillian.container.resin.embedded_4.ResinEmbeddedContainer;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of deploy and undeploy cycles against a running container, by
+ * archive shape and deployment mode.
+ * 
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DeploymentBenchmark {
+  @Param({ ResinEmbeddedConfiguration.DEPLOYMENT_MODE_EXPLODED, ResinEmbeddedConfiguration.DEPLOYMENT_MODE_ARCHIVE })
+  public String deploymentMode;
+
+  @Param({ "10", "1000" })
+  public int classCount;
+
+  @Param({ "0", "20" })
+  public int libraryCount;
+
+  /**
+   * Size of each library in KB.
+   */
+  @Param({ "512" })
+  public int librarySize;
+
+  @Param({ "1", "20" })
+  public int servletCount;
+
+  private ResinEmbeddedContainer _container;
+  private WebArchive _archive;
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    _container = new ResinEmbeddedContainer();
+    _container.setup(BenchmarkConfiguration.create(ResinEmbeddedConfiguration.PROFILE_DEFAULT, deploymentMode));
+    _container.start();
+
+    _archive = BenchmarkArchives.create("benchmark", classCount, libraryCount, librarySize, servletCount);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception
+  {
+    _container.stop();
+  }
+
+  @Benchmark
+  public void deployAndUndeploy() throws Exception
+  {
+    _container.deploy(_archive);
+    _container.undeploy(_archive);
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ArchivePath;
+import org.jboss.shrinkwrap.api.Node;
+import org.jboss.shrinkwrap.api.asset.ArchiveAsset;
+import org.jboss.shrinkwrap.api.asset.Asset;
+
+/**
+ * Content digest of a ShrinkWrap archive, computed from the path, size and
+ * SHA-1 hash of every entry. Two archives with the same entries have the same
+ * digest regardless of their names or entry order. Nested archives, such as
+ * libraries built with ShrinkWrap, are hashed by their content, since their
+ * exported bytes carry the export time.
+ * 
+ * @version $Revision: $
+ */
+final class ArchiveDigest {
+  private static final String ALGORITHM = "SHA-1";
+  private static final int BUFFER_SIZE = 8192;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final SortedMap<String, Entry> _entries;
+  private final String _digest;
+  private final long _size;
+
+  private ArchiveDigest(SortedMap<String, Entry> entries, String digest, long size)
+  {
+    _entries = Collections.unmodifiableSortedMap(entries);
+    _digest = digest;
+    _size = size;
+  }
+
+  /**
+   * Computes the digest of the given archive, reading every asset once.
+   */
+  static ArchiveDigest create(Archive<?> archive) throws IOException
+  {
+    SortedMap<String, Entry> entries = new TreeMap<String, Entry>();
+    MessageDigest archiveDigest = newMessageDigest();
+    long size = 0;
+
+    for (Map.Entry<ArchivePath, Node> content : archive.getContent().entrySet()) {
+      Entry entry = createContentEntry(content.getValue().getAsset());
+
+      entries.put(content.getKey().get(), entry);
+      size += entry.getSize();
+    }
+
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      archiveDigest.update(entry.getKey().getBytes("UTF-8"));
+      archiveDigest.update((byte) 0);
+      archiveDigest.update(entry.getValue().toString().getBytes("UTF-8"));
+      archiveDigest.update((byte) '\n');
+    }
+
+    return new ArchiveDigest(entries, toHex(archiveDigest.digest()), size);
+  }
+
+  /**
+   * Hex encoded digest of the whole archive.
+   */
+  String getDigest()
+  {
+    return _digest;
+  }
+
+  /**
+   * Total size in bytes of all archive entries.
+   */
+  long getSize()
+  {
+    return _size;
+  }
+
+  /**
+   * Archive entries by path, sorted by path.
+   */
+  SortedMap<String, Entry> getEntries()
+  {
+    return _entries;
+  }
+
+  static String toHex(byte[] bytes)
+  {
+    char[] chars = new char[bytes.length * 2];
+
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+    }
+
+    return new String(chars);
+  }
+
+  static MessageDigest newMessageDigest()
+  {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(ALGORITHM + " is not available.", e);
+    }
+  }
+
+  /**
+   * Returns the entry of an asset, the size and hash of a nested archive
+   * are those of its content.
+   */
+  private static Entry createContentEntry(Asset asset) throws IOException
+  {
+    if (asset instanceof ArchiveAsset) {
+      ArchiveDigest nested = create(((ArchiveAsset) asset).getArchive());
+
+      return new Entry(nested.getSize(), nested.getDigest());
+    }
+
+    return createEntry(asset);
+  }
+
+  static Entry createEntry(Asset asset) throws IOException
+  {
+    if (asset == null) {
+      return Entry.DIRECTORY;
+    }
+
+    return createEntry(asset.openStream());
+  }
+
+  /**
+   * Reads the stream to its end, closes it and returns its size and hash.
+   */
+  static Entry createEntry(InputStream in) throws IOException
+  {
+    MessageDigest digest = newMessageDigest();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    long size = 0;
+
+    try {
+      int length;
+
+      while ((length = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, length);
+        size += length;
+      }
+    } finally {
+      in.close();
+    }
+
+    return new Entry(size, toHex(digest.digest()));
+  }
+
+  /**
+   * Size and hash of a single archive entry, directories have neither.
+   */
+  static final class Entry {
+    static final Entry DIRECTORY = new Entry(-1, "");
+
+    private final long _size;
+    private final String _hash;
+
+    Entry(long size, String hash)
+    {
+      _size = size;
+      _hash = hash;
+    }
+
+    boolean isDirectory()
+    {
+      return _size < 0;
+    }
+
+    long getSize()
+    {
+      return isDirectory() ? 0 : _size;
+    }
+
+    String getHash()
+    {
+      return _hash;
+    }
+
+    /**
+     * Parses the form written by {@link #toString()}.
+     */
+    static Entry parse(String value)
+    {
+      int separator = value.indexOf(':');
+
+      if (separator < 0) {
+        throw new IllegalArgumentException("Invalid archive entry " + value);
+      }
+
+      return new Entry(Long.parseLong(value.substring(0, separator)),
+                       value.substring(separator + 1));
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+
+      Entry entry = (Entry) o;
+
+      return _size == entry._size && _hash.equals(entry._hash);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return _hash.hashCode() * 31 + (int) _size;
+    }
+
+    @Override
+    public String toString()
+    {
+      return _size + ":" + _hash;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ArchivePath;
+import org.jboss.shrinkwrap.api.Node;
+import org.jboss.shrinkwrap.api.asset.Asset;
+
+/**
+ * Writes the nodes of a ShrinkWrap archive straight into an exploded
+ * directory tree, so Resin does not have to expand a zipped .war first.
+ * Nested archives (such as WEB-INF/lib JARs) are written as archive files.
+ * Given an executor, files are written in parallel batches.
+ * 
+ * @version $Revision: $
+ */
+final class ArchiveExploder {
+  private static final int BUFFER_SIZE = 8192;
+  private static final int BATCH_SIZE = 32;
+
+  private ArchiveExploder()
+  {
+  }
+
+  /**
+   * Writes every node of the archive below the given directory, using the
+   * executor if not null.
+   */
+  static void explode(Archive<?> archive, File directory,
+                      ExecutorService executor)
+    throws IOException
+  {
+    List<Node> nodes = new ArrayList<Node>();
+
+    // Directories first, so parallel writers do not race to create them.
+    for (Map.Entry<ArchivePath, Node> entry : archive.getContent().entrySet()) {
+      Node node = entry.getValue();
+
+      if (node.getAsset() == null) {
+        writeNode(node, directory);
+      } else {
+        nodes.add(node);
+      }
+    }
+
+    writeNodes(nodes, directory, executor);
+  }
+
+  /**
+   * Writes the given nodes below the directory, in parallel batches if an
+   * executor is given and there are enough nodes.
+   */
+  static void writeNodes(List<Node> nodes, final File directory,
+                         ExecutorService executor)
+    throws IOException
+  {
+    if (executor == null || nodes.size() <= BATCH_SIZE) {
+      for (Node node : nodes) {
+        writeNode(node, directory);
+      }
+
+      return;
+    }
+
+    List<Future<Void>> batches = new ArrayList<Future<Void>>();
+
+    for (int i = 0; i < nodes.size(); i += BATCH_SIZE) {
+      final List<Node> batch = nodes.subList(i, Math.min(i + BATCH_SIZE, nodes.size()));
+
+      batches.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException
+        {
+          for (Node node : batch) {
+            writeNode(node, directory);
+          }
+
+          return null;
+        }
+      }));
+    }
+
+    try {
+      for (Future<Void> batch : batches) {
+        batch.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing " + directory);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      throw new IOException("Failed to write " + directory, e.getCause());
+    } finally {
+      for (Future<Void> batch : batches) {
+        batch.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Writes a single archive node below the given directory, creating parent
+   * directories as needed.
+   */
+  static void writeNode(Node node, File directory) throws IOException
+  {
+    File target = getFile(directory, node.getPath());
+    Asset asset = node.getAsset();
+
+    if (asset == null) {
+      createDirectory(target);
+      return;
+    }
+
+    createDirectory(target.getParentFile());
+
+    InputStream in = asset.openStream();
+
+    try {
+      OutputStream out = new FileOutputStream(target);
+
+      try {
+        copy(in, out);
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Maps an archive path onto a file below the given directory.
+   */
+  static File getFile(File directory, ArchivePath path)
+  {
+    String name = path.get();
+
+    if (name.startsWith("/")) {
+      name = name.substring(1);
+    }
+
+    return new File(directory, name);
+  }
+
+  private static void createDirectory(File directory) throws IOException
+  {
+    // Another writer may have created it in the meantime.
+    if (!directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Failed to create directory " + directory);
+    }
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException
+  {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int length;
+
+    while ((length = in.read(buffer)) > 0) {
+      out.write(buffer, 0, length);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.exporter.ZipExporter;
+
+/**
+ * Exports archives as .war files for the archive deployment mode with the
+ * configured compression, and keeps a .war written earlier if the archive
+ * content has not changed since.
+ * 
+ * @version $Revision: $
+ */
+final class ArchiveExporter {
+  private static final Logger log = 
+    Logger.getLogger(ArchiveExporter.class.getName());
+
+  private final String _compression;
+  private final ExecutorService _executor;
+
+  // Content digests of the .war files written, by path.
+  private final Map<String, String> _digests = new ConcurrentHashMap<String, String>();
+
+  ArchiveExporter(String compression, ExecutorService executor)
+  {
+    _compression = compression;
+    _executor = executor;
+  }
+
+  /**
+   * Writes the archive to the file unless this exporter wrote the same
+   * content to the file before.
+   */
+  void export(Archive<?> archive, ArchiveDigest digest, File warFile)
+    throws IOException
+  {
+    String path = warFile.getAbsolutePath();
+
+    if (warFile.isFile() && digest.getDigest().equals(_digests.get(path))) {
+      log.fine(String.format("Web archive %s is unchanged, keeping %s.", archive.getName(), warFile));
+      return;
+    }
+
+    _digests.remove(path);
+
+    if (warFile.exists()) {
+      warFile.delete();
+    }
+
+    write(archive, warFile);
+
+    _digests.put(path, digest.getDigest());
+  }
+
+  private void write(Archive<?> archive, File warFile) throws IOException
+  {
+    if (ResinEmbeddedConfiguration.EXPORT_COMPRESSION_DEFLATE.equals(_compression)) {
+      archive.as(ZipExporter.class).exportTo(warFile.getAbsoluteFile());
+      return;
+    }
+
+    boolean compress = ResinEmbeddedConfiguration.EXPORT_COMPRESSION_PARALLEL.equals(_compression);
+
+    try {
+      new ArchiveZipWriter(compress, compress ? _executor : null).write(archive, warFile);
+    } catch (ArchiveZipWriter.ZipLimitException e) {
+      // ZipExporter handles archives beyond the ZIP limits with ZIP64.
+      log.fine(String.format("Falling back to ZipExporter for web archive %s: %s", archive.getName(), e.getMessage()));
+
+      warFile.delete();
+      archive.as(ZipExporter.class).exportTo(warFile.getAbsoluteFile());
+    }
+  }
+}
@@ -0,0 +1,601 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ArchivePath;
+import org.jboss.shrinkwrap.api.Node;
+import org.jboss.shrinkwrap.api.asset.Asset;
+
+/**
+ * Writes a ShrinkWrap archive as a ZIP file, storing entries uncompressed
+ * or deflating them in parallel. Entries are prepared in batches, each
+ * entry on its own thread if an executor is given, and written in path order
+ * through a buffered file channel. Only small entries are held in memory;
+ * larger ones are streamed from their asset when written, stored entries
+ * after a first pass for their CRC and deflated ones followed by a data
+ * descriptor. ZIP64 is not supported; archives beyond its limits are
+ * rejected with a {@link ZipLimitException}.
+ * 
+ * @version $Revision: $
+ */
+final class ArchiveZipWriter {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int BATCH_SIZE = 32;
+
+  // Bounds the memory held by a batch to about 16 MB.
+  private static final int ENTRY_BUFFER_SIZE = 512 * 1024;
+
+  private static final int LOCAL_HEADER = 0x04034b50;
+  private static final int CENTRAL_HEADER = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+  private static final int DATA_DESCRIPTOR = 0x08074b50;
+
+  private static final short VERSION = 20;
+  private static final short UTF8_NAMES = 0x0800;
+  private static final short DATA_DESCRIPTOR_FLAG = 0x0008;
+  private static final short STORED = 0;
+  private static final short DEFLATED = 8;
+  private static final int DIRECTORY_ATTRIBUTE = 0x10;
+
+  private static final long MAX_SIZE = 0xffffffffL;
+  private static final int MAX_ENTRIES = 0xffff;
+
+  private final boolean _compress;
+  private final ExecutorService _executor;
+
+  private final int _dosTime;
+  private final int _dosDate;
+
+  /**
+   * Creates a writer deflating entries with the fastest compression level
+   * if compress is set, storing them otherwise, using the executor if not
+   * null.
+   */
+  ArchiveZipWriter(boolean compress, ExecutorService executor)
+  {
+    _compress = compress;
+    _executor = executor;
+
+    Calendar calendar = Calendar.getInstance();
+
+    _dosTime = calendar.get(Calendar.HOUR_OF_DAY) << 11
+      | calendar.get(Calendar.MINUTE) << 5
+      | calendar.get(Calendar.SECOND) >> 1;
+    _dosDate = (calendar.get(Calendar.YEAR) - 1980) << 9
+      | (calendar.get(Calendar.MONTH) + 1) << 5
+      | calendar.get(Calendar.DAY_OF_MONTH);
+  }
+
+  void write(Archive<?> archive, File file) throws IOException
+  {
+    SortedMap<String, Node> nodes = new TreeMap<String, Node>();
+
+    for (Map.Entry<ArchivePath, Node> content : archive.getContent().entrySet()) {
+      String name = content.getKey().get();
+
+      if (name.startsWith("/")) {
+        name = name.substring(1);
+      }
+
+      if (content.getValue().getAsset() == null) {
+        name += "/";
+      }
+
+      nodes.put(name, content.getValue());
+    }
+
+    if (nodes.size() > MAX_ENTRIES) {
+      throw new ZipLimitException(String.format("Archive %s has %d entries, more than a ZIP file without ZIP64 holds.", archive.getName(), nodes.size()));
+    }
+
+    List<String> names = new ArrayList<String>(nodes.keySet());
+    List<Entry> written = new ArrayList<Entry>();
+    FileOutputStream out = new FileOutputStream(file);
+
+    try {
+      FileChannel channel = out.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      long offset = 0;
+
+      for (int i = 0; i < names.size(); i += BATCH_SIZE) {
+        for (Entry entry : prepare(names.subList(i, Math.min(i + BATCH_SIZE, names.size())), nodes)) {
+          entry._offset = offset;
+          offset += writeLocalEntry(channel, buffer, entry);
+
+          // Only the central directory needs the entry from here on.
+          entry._data = null;
+          entry._asset = null;
+          written.add(entry);
+        }
+      }
+
+      long centralDirectoryOffset = offset;
+
+      for (Entry entry : written) {
+        offset += writeCentralEntry(channel, buffer, entry);
+      }
+
+      checkSize(archive, offset);
+
+      put(channel, buffer, 22);
+      buffer.putInt(END_OF_CENTRAL_DIRECTORY);
+      buffer.putShort((short) 0);
+      buffer.putShort((short) 0);
+      buffer.putShort((short) written.size());
+      buffer.putShort((short) written.size());
+      buffer.putInt((int) (offset - centralDirectoryOffset));
+      buffer.putInt((int) centralDirectoryOffset);
+      buffer.putShort((short) 0);
+
+      flush(channel, buffer);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads and, if enabled, compresses the named entries, in parallel if
+   * there is an executor.
+   */
+  private List<Entry> prepare(List<String> names, Map<String, Node> nodes)
+    throws IOException
+  {
+    List<Entry> entries = new ArrayList<Entry>();
+
+    if (_executor == null) {
+      for (String name : names) {
+        entries.add(prepare(name, nodes.get(name).getAsset()));
+      }
+
+      return entries;
+    }
+
+    List<Future<Entry>> futures = new ArrayList<Future<Entry>>();
+
+    for (final String name : names) {
+      final Asset asset = nodes.get(name).getAsset();
+
+      futures.add(_executor.submit(new Callable<Entry>() {
+        @Override
+        public Entry call() throws IOException
+        {
+          return prepare(name, asset);
+        }
+      }));
+    }
+
+    try {
+      for (Future<Entry> future : futures) {
+        entries.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while compressing " + names);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      throw new IOException("Failed to compress " + names, e.getCause());
+    } finally {
+      for (Future<Entry> future : futures) {
+        future.cancel(false);
+      }
+    }
+
+    return entries;
+  }
+
+  private Entry prepare(String name, Asset asset) throws IOException
+  {
+    Entry entry = new Entry(name.getBytes("UTF-8"));
+    entry._method = STORED;
+    entry._flags = UTF8_NAMES;
+
+    if (asset == null) {
+      entry._data = new byte[0];
+    } else if (_compress) {
+      deflate(entry, asset);
+    } else {
+      store(entry, asset);
+    }
+
+    return entry;
+  }
+
+  /**
+   * Reads the asset for its CRC and size, keeping the data if it is small.
+   */
+  private void store(Entry entry, Asset asset) throws IOException
+  {
+    CRC32 crc = new CRC32();
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    InputStream in = asset.openStream();
+    long size = 0;
+
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int length;
+
+      while ((length = in.read(buffer)) >= 0) {
+        crc.update(buffer, 0, length);
+        size += length;
+
+        if (data != null && size <= ENTRY_BUFFER_SIZE) {
+          data.write(buffer, 0, length);
+        } else {
+          // Copied from the asset again when written.
+          data = null;
+        }
+      }
+    } finally {
+      in.close();
+    }
+
+    checkSize(entry, size, size);
+
+    entry._crc = crc.getValue();
+    entry._size = size;
+    entry._compressedSize = size;
+
+    if (data != null) {
+      entry._data = data.toByteArray();
+    } else {
+      entry._asset = asset;
+    }
+  }
+
+  /**
+   * Deflates the asset in memory, unless the compressed data grows too
+   * large, in which case the asset is deflated again when written.
+   */
+  private void deflate(Entry entry, Asset asset) throws IOException
+  {
+    CRC32 crc = new CRC32();
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+    entry._method = DEFLATED;
+
+    try {
+      DeflaterOutputStream deflated = 
+        new DeflaterOutputStream(data, deflater, BUFFER_SIZE);
+      InputStream in = asset.openStream();
+      long size = 0;
+
+      try {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+
+        while ((length = in.read(buffer)) >= 0) {
+          if (data.size() > ENTRY_BUFFER_SIZE) {
+            entry._flags |= DATA_DESCRIPTOR_FLAG;
+            entry._asset = asset;
+            return;
+          }
+
+          crc.update(buffer, 0, length);
+          size += length;
+          deflated.write(buffer, 0, length);
+        }
+      } finally {
+        in.close();
+      }
+
+      deflated.finish();
+
+      checkSize(entry, size, data.size());
+
+      entry._crc = crc.getValue();
+      entry._size = size;
+      entry._data = data.toByteArray();
+      entry._compressedSize = entry._data.length;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private long writeLocalEntry(FileChannel channel, ByteBuffer buffer, Entry entry)
+    throws IOException
+  {
+    // With a data descriptor, CRC and sizes are not known yet and left 0.
+    put(channel, buffer, 30 + entry._name.length);
+    buffer.putInt(LOCAL_HEADER);
+    buffer.putShort(VERSION);
+    buffer.putShort(entry._flags);
+    buffer.putShort(entry._method);
+    buffer.putShort((short) _dosTime);
+    buffer.putShort((short) _dosDate);
+    buffer.putInt((int) entry._crc);
+    buffer.putInt((int) entry._compressedSize);
+    buffer.putInt((int) entry._size);
+    buffer.putShort((short) entry._name.length);
+    buffer.putShort((short) 0);
+    buffer.put(entry._name);
+
+    long length = 30 + entry._name.length;
+
+    if (entry._data != null) {
+      put(channel, buffer, entry._data, entry._data.length);
+
+      return length + entry._data.length;
+    }
+
+    if (entry._method == STORED) {
+      copy(channel, buffer, entry);
+
+      return length + entry._size;
+    }
+
+    deflate(channel, buffer, entry);
+
+    put(channel, buffer, 16);
+    buffer.putInt(DATA_DESCRIPTOR);
+    buffer.putInt((int) entry._crc);
+    buffer.putInt((int) entry._compressedSize);
+    buffer.putInt((int) entry._size);
+
+    return length + entry._compressedSize + 16;
+  }
+
+  /**
+   * Copies a stored entry from its asset, which must not have changed since
+   * its CRC was computed.
+   */
+  private static void copy(FileChannel channel, ByteBuffer buffer, Entry entry)
+    throws IOException
+  {
+    CRC32 crc = new CRC32();
+    InputStream in = entry._asset.openStream();
+    long size = 0;
+
+    try {
+      byte[] data = new byte[BUFFER_SIZE];
+      int length;
+
+      while ((length = in.read(data)) >= 0) {
+        crc.update(data, 0, length);
+        size += length;
+        put(channel, buffer, data, length);
+      }
+    } finally {
+      in.close();
+    }
+
+    if (size != entry._size || crc.getValue() != entry._crc) {
+      throw new IOException(String.format("Entry %s changed while it was written.", new String(entry._name, "UTF-8")));
+    }
+  }
+
+  /**
+   * Deflates an entry from its asset straight to the channel and records
+   * its CRC and sizes for the data descriptor.
+   */
+  private static void deflate(FileChannel channel, ByteBuffer buffer, Entry entry)
+    throws IOException
+  {
+    CRC32 crc = new CRC32();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    InputStream in = entry._asset.openStream();
+    long size = 0;
+
+    try {
+      byte[] data = new byte[BUFFER_SIZE];
+      byte[] deflated = new byte[BUFFER_SIZE];
+      int length;
+
+      while ((length = in.read(data)) >= 0) {
+        crc.update(data, 0, length);
+        size += length;
+
+        deflater.setInput(data, 0, length);
+
+        while (!deflater.needsInput()) {
+          put(channel, buffer, deflated, deflater.deflate(deflated));
+        }
+      }
+
+      deflater.finish();
+
+      while (!deflater.finished()) {
+        put(channel, buffer, deflated, deflater.deflate(deflated));
+      }
+
+      checkSize(entry, size, deflater.getBytesWritten());
+
+      entry._crc = crc.getValue();
+      entry._size = size;
+      entry._compressedSize = deflater.getBytesWritten();
+    } finally {
+      in.close();
+      deflater.end();
+    }
+  }
+
+  private int writeCentralEntry(FileChannel channel, ByteBuffer buffer, Entry entry)
+    throws IOException
+  {
+    if (entry._offset > MAX_SIZE) {
+      throw new ZipLimitException("ZIP file is larger than a ZIP file without ZIP64 holds.");
+    }
+
+    boolean directory = entry._name[entry._name.length - 1] == '/';
+
+    put(channel, buffer, 46 + entry._name.length);
+    buffer.putInt(CENTRAL_HEADER);
+    buffer.putShort(VERSION);
+    buffer.putShort(VERSION);
+    buffer.putShort(entry._flags);
+    buffer.putShort(entry._method);
+    buffer.putShort((short) _dosTime);
+    buffer.putShort((short) _dosDate);
+    buffer.putInt((int) entry._crc);
+    buffer.putInt((int) entry._compressedSize);
+    buffer.putInt((int) entry._size);
+    buffer.putShort((short) entry._name.length);
+    buffer.putShort((short) 0);
+    buffer.putShort((short) 0);
+    buffer.putShort((short) 0);
+    buffer.putShort((short) 0);
+    buffer.putInt(directory ? DIRECTORY_ATTRIBUTE : 0);
+    buffer.putInt((int) entry._offset);
+    buffer.put(entry._name);
+
+    return 46 + entry._name.length;
+  }
+
+  private static void checkSize(Entry entry, long size, long compressedSize)
+    throws IOException
+  {
+    if (size > MAX_SIZE || compressedSize > MAX_SIZE) {
+      throw new ZipLimitException(String.format("Entry %s is larger than a ZIP file without ZIP64 holds.", new String(entry._name, "UTF-8")));
+    }
+  }
+
+  private static void checkSize(Archive<?> archive, long size) throws IOException
+  {
+    if (size > MAX_SIZE) {
+      throw new ZipLimitException(String.format("Archive %s is larger than a ZIP file without ZIP64 holds.", archive.getName()));
+    }
+  }
+
+  /**
+   * Makes room for the given number of bytes in the buffer, flushing it if
+   * needed.
+   */
+  private static void put(FileChannel channel, ByteBuffer buffer, int length)
+    throws IOException
+  {
+    if (buffer.remaining() < length) {
+      flush(channel, buffer);
+    }
+  }
+
+  private static void put(FileChannel channel, ByteBuffer buffer, 
+                          byte[] data, int length)
+    throws IOException
+  {
+    if (length <= buffer.remaining()) {
+      buffer.put(data, 0, length);
+      return;
+    }
+
+    flush(channel, buffer);
+
+    if (length <= buffer.remaining()) {
+      buffer.put(data, 0, length);
+    } else {
+      ByteBuffer wrapped = ByteBuffer.wrap(data, 0, length);
+
+      while (wrapped.hasRemaining()) {
+        channel.write(wrapped);
+      }
+    }
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer)
+    throws IOException
+  {
+    buffer.flip();
+
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+
+    buffer.clear();
+  }
+
+  /**
+   * Thrown when an archive exceeds the limits of a ZIP file without ZIP64.
+   */
+  static final class ZipLimitException extends IOException {
+    ZipLimitException(String message)
+    {
+      super(message);
+    }
+  }
+
+  /**
+   * A prepared ZIP entry, holding either its data or the asset to stream it
+   * from.
+   */
+  private static final class Entry {
+    private final byte[] _name;
+    private short _method;
+    private short _flags;
+    private long _crc;
+    private long _size;
+    private long _compressedSize;
+    private long _offset;
+    private byte[] _data;
+    private Asset _asset;
+
+    Entry(byte[] name)
+    {
+      _name = name;
+    }
+  }
+}
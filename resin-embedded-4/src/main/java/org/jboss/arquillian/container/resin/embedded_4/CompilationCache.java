@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Persistent directory for the output of Resin's JSP and class compilers,
+ * kept across container restarts. Each archive content digest gets its own
+ * work directory, so output compiled from other sources is never used.
+ * 
+ * @version $Revision: $
+ */
+final class CompilationCache {
+  // Fixed modification time for deployed sources, so Resin does not consider
+  // compiled output stale just because the sources were written again.
+  static final long SOURCE_TIMESTAMP = 946684800000L;
+
+  private final File _directory;
+
+  CompilationCache(File directory)
+  {
+    _directory = directory;
+  }
+
+  /**
+   * Returns the work directory for the archive, creating it if needed.
+   */
+  File getWorkDirectory(ArchiveDigest digest) throws IOException
+  {
+    File workDirectory = new File(_directory, digest.getDigest());
+
+    if (!workDirectory.mkdirs() && !workDirectory.isDirectory()) {
+      throw new IOException("Failed to create compilation cache directory " + workDirectory);
+    }
+
+    // Lets users prune entries that have not been used for a while.
+    workDirectory.setLastModified(System.currentTimeMillis());
+
+    return workDirectory;
+  }
+
+  /**
+   * Sets the modification time of every archive file in the deployment
+   * directory to {@link #SOURCE_TIMESTAMP}.
+   */
+  static void normalizeTimestamps(File deploymentDirectory, ArchiveDigest digest)
+  {
+    for (Map.Entry<String, ArchiveDigest.Entry> entry : digest.getEntries().entrySet()) {
+      if (!entry.getValue().isDirectory()) {
+        String path = entry.getKey();
+
+        new File(deploymentDirectory, path.startsWith("/") ? path.substring(1) : path)
+          .setLastModified(SOURCE_TIMESTAMP);
+      }
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Resources such as database pools declared in a Resin configuration
+ * fragment that the generated configuration imports at cluster level. They
+ * are created once when Resin starts, visible in the JNDI environment of
+ * every web application and closed when Resin stops.
+ * 
+ * @version $Revision: $
+ */
+final class ContainerResources {
+  private static final Logger log = 
+    Logger.getLogger(ContainerResources.class.getName());
+
+  private static final String ENVIRONMENT = "java:comp/env/";
+
+  private final File _file;
+  private final List<String> _dataSources;
+
+  private ContainerResources(File file, List<String> dataSources)
+  {
+    _file = file;
+    _dataSources = dataSources;
+  }
+
+  /**
+   * Reads the JNDI names of the databases declared in the fragment.
+   */
+  static ContainerResources create(String path) throws IOException
+  {
+    File file = new File(path).getAbsoluteFile();
+    List<String> dataSources = new ArrayList<String>();
+
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+
+      Document document = factory.newDocumentBuilder().parse(file);
+      NodeList databases = document.getElementsByTagNameNS("*", "database");
+
+      for (int i = 0; i < databases.getLength(); i++) {
+        String jndiName = getValue((Element) databases.item(i), "jndi-name");
+
+        if (jndiName != null) {
+          dataSources.add(jndiName);
+        }
+      }
+    } catch (ParserConfigurationException e) {
+      throw new IllegalStateException(e);
+    } catch (SAXException e) {
+      throw new IOException(String.format("Container resources %s are not well-formed: %s", file, e.getMessage()), e);
+    }
+
+    return new ContainerResources(file, dataSources);
+  }
+
+  /**
+   * Returns the value of the attribute or child element, Resin accepts
+   * either form.
+   */
+  private static String getValue(Element element, String name)
+  {
+    String value = element.getAttribute(name).trim();
+
+    if (value.length() > 0) {
+      return value;
+    }
+
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child instanceof Element && name.equals(child.getLocalName())) {
+        return child.getTextContent().trim();
+      }
+    }
+
+    return null;
+  }
+
+  File getFile()
+  {
+    return _file;
+  }
+
+  List<String> getDataSources()
+  {
+    return _dataSources;
+  }
+
+  /**
+   * Opens the given number of connections at once on every declared
+   * database and returns them to the pool, looked up in the environment of
+   * the given class loader. Failures are logged, since the tests may not
+   * use the database at all.
+   */
+  void prefill(ClassLoader classLoader, int connections)
+  {
+    Thread thread = Thread.currentThread();
+    ClassLoader oldClassLoader = thread.getContextClassLoader();
+
+    thread.setContextClassLoader(classLoader);
+
+    try {
+      for (String jndiName : _dataSources) {
+        long startTime = System.currentTimeMillis();
+
+        try {
+          prefill(jndiName, connections);
+
+          log.fine(String.format("Opened %d connections of %s in %d ms.", connections, jndiName, System.currentTimeMillis() - startTime));
+        } catch (Exception e) {
+          log.log(Level.WARNING, String.format("Failed to prefill connection pool %s.", jndiName), e);
+        }
+      }
+    } finally {
+      thread.setContextClassLoader(oldClassLoader);
+    }
+  }
+
+  private static void prefill(String jndiName, int connections)
+    throws NamingException, SQLException
+  {
+    String name = jndiName.startsWith("java:") ? jndiName : ENVIRONMENT + jndiName;
+    DataSource dataSource = (DataSource) new InitialContext().lookup(name);
+    List<Connection> opened = new ArrayList<Connection>();
+
+    try {
+      // Held open together, so the pool has to create them all.
+      for (int i = 0; i < connections; i++) {
+        opened.add(dataSource.getConnection());
+      }
+    } finally {
+      for (Connection connection : opened) {
+        connection.close();
+      }
+    }
+  }
+}
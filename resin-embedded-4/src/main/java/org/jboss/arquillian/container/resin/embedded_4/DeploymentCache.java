@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Least recently used cache of exploded deployment directories keyed by
+ * archive digest. A cached directory is handed to at most one deployment at
+ * a time and kept after undeployment, so an identical archive deployed later
+ * does not have to be written out again.
+ * 
+ * @version $Revision: $
+ */
+final class DeploymentCache {
+  private static final Logger log = 
+    Logger.getLogger(DeploymentCache.class.getName());
+
+  private final int _maxSize;
+  private final Map<String, Entry> _entries = 
+    new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  private long _hits;
+  private long _misses;
+
+  DeploymentCache(int maxSize)
+  {
+    _maxSize = maxSize;
+  }
+
+  /**
+   * Returns the cached directory for the digest and marks it in use, or null
+   * if there is no idle cached directory.
+   */
+  synchronized File acquire(String digest)
+  {
+    Entry entry = _entries.get(digest);
+
+    if (entry == null || entry._inUse || !entry._directory.isDirectory()) {
+      _misses++;
+      return null;
+    }
+
+    entry._inUse = true;
+    _hits++;
+
+    return entry._directory;
+  }
+
+  /**
+   * Adds a freshly exploded directory in use by a deployment, evicting least
+   * recently used idle entries above the size cap. Returns false if the digest
+   * is already cached, in which case the directory is not managed by the cache.
+   */
+  synchronized boolean put(String digest, File directory)
+  {
+    if (_entries.containsKey(digest)) {
+      return false;
+    }
+
+    _entries.put(digest, new Entry(directory));
+
+    evict();
+
+    return true;
+  }
+
+  /**
+   * Marks a cached directory idle again after its deployment is removed.
+   */
+  synchronized void release(File directory)
+  {
+    for (Entry entry : _entries.values()) {
+      if (entry._directory.equals(directory)) {
+        entry._inUse = false;
+      }
+    }
+
+    evict();
+  }
+
+  /**
+   * Forgets a directory, which is no longer managed by the cache.
+   */
+  synchronized void remove(File directory)
+  {
+    Iterator<Entry> entries = _entries.values().iterator();
+
+    while (entries.hasNext()) {
+      if (entries.next()._directory.equals(directory)) {
+        entries.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns true if the directory is managed by the cache.
+   */
+  synchronized boolean contains(File directory)
+  {
+    for (Entry entry : _entries.values()) {
+      if (entry._directory.equals(directory)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  synchronized long getHits()
+  {
+    return _hits;
+  }
+
+  synchronized long getMisses()
+  {
+    return _misses;
+  }
+
+  synchronized int size()
+  {
+    return _entries.size();
+  }
+
+  /**
+   * Forgets all entries, the directories are removed with the working
+   * directory.
+   */
+  synchronized void clear()
+  {
+    _entries.clear();
+  }
+
+  private void evict()
+  {
+    Iterator<Entry> entries = _entries.values().iterator();
+
+    while (_entries.size() > _maxSize && entries.hasNext()) {
+      Entry entry = entries.next();
+
+      if (!entry._inUse) {
+        entries.remove();
+
+        try {
+          DirectoryCleaner.delete(entry._directory);
+        } catch (IOException e) {
+          log.log(Level.WARNING, "Failed to remove cached deployment directory " + entry._directory, e);
+        }
+      }
+    }
+  }
+
+  private static final class Entry {
+    private final File _directory;
+    private boolean _inUse = true;
+
+    Entry(File directory)
+    {
+      _directory = directory;
+    }
+  }
+}
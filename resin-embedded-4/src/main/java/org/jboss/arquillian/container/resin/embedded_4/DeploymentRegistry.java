@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Live deployments of a container by context path. Each context path has its
+ * own lock, so deployments to different context paths never wait for each
+ * other, and a context path is held by at most one deployment.
+ * 
+ * @version $Revision: $
+ */
+final class DeploymentRegistry {
+  private final ConcurrentMap<String, ResinDeployment> _deployments = 
+    new ConcurrentHashMap<String, ResinDeployment>();
+  private final ConcurrentMap<String, Lock> _locks = 
+    new ConcurrentHashMap<String, Lock>();
+
+  /**
+   * Returns the lock guarding deploy and undeploy of the context path.
+   */
+  Lock getLock(String contextPath)
+  {
+    Lock lock = _locks.get(contextPath);
+
+    if (lock == null) {
+      Lock newLock = new ReentrantLock();
+
+      lock = _locks.putIfAbsent(contextPath, newLock);
+
+      if (lock == null) {
+        lock = newLock;
+      }
+    }
+
+    return lock;
+  }
+
+  /**
+   * Registers the deployment, failing if its context path is already taken.
+   */
+  void put(ResinDeployment deployment)
+  {
+    ResinDeployment existing = 
+      _deployments.putIfAbsent(deployment.getContextPath(), deployment);
+
+    if (existing != null) {
+      throw new IllegalStateException(String.format("Context path %s is already deployed from %s.", deployment.getContextPath(), existing.getDeploymentDirectory()));
+    }
+  }
+
+  ResinDeployment get(String contextPath)
+  {
+    return _deployments.get(contextPath);
+  }
+
+  ResinDeployment remove(String contextPath)
+  {
+    return _deployments.remove(contextPath);
+  }
+
+  /**
+   * Snapshot of the live deployments.
+   */
+  Collection<ResinDeployment> getDeployments()
+  {
+    return new ArrayList<ResinDeployment>(_deployments.values());
+  }
+
+  void clear()
+  {
+    _deployments.clear();
+  }
+}
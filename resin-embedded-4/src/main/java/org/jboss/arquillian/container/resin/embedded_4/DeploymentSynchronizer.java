@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ArchivePath;
+import org.jboss.shrinkwrap.api.Node;
+
+/**
+ * Brings an exploded deployment directory in line with an archive by
+ * writing only added or changed entries and deleting removed ones. The
+ * entries of the last synchronized archive are kept in a manifest file next
+ * to the directory.
+ * 
+ * @version $Revision: $
+ */
+final class DeploymentSynchronizer {
+  private static final Logger log = 
+    Logger.getLogger(DeploymentSynchronizer.class.getName());
+
+  private DeploymentSynchronizer()
+  {
+  }
+
+  /**
+   * Synchronizes the directory with the archive and returns the number of
+   * files written and entries deleted.
+   */
+  static int synchronize(Archive<?> archive, ArchiveDigest digest,
+                         File directory, File manifestFile,
+                         ExecutorService executor)
+    throws IOException
+  {
+    Map<String, ArchiveDigest.Entry> entries = digest.getEntries();
+    Properties manifest = loadManifest(manifestFile);
+
+    // Until the new manifest is stored the directory matches neither
+    // archive, an interrupted run must lead to a full rewrite next time.
+    if (manifestFile.exists() && !manifestFile.delete()) {
+      throw new IOException("Failed to delete " + manifestFile);
+    }
+
+    List<Node> changed = new ArrayList<Node>();
+    long bytes = 0;
+
+    for (Map.Entry<ArchivePath, Node> content : archive.getContent().entrySet()) {
+      String path = content.getKey().get();
+      ArchiveDigest.Entry entry = entries.get(path);
+      String previous = manifest.getProperty(path);
+
+      if (previous != null && entry.equals(parseEntry(previous))
+          && ArchiveExploder.getFile(directory, content.getKey()).exists()) {
+        continue;
+      }
+
+      if (entry.isDirectory()) {
+        ArchiveExploder.writeNode(content.getValue(), directory);
+      } else {
+        changed.add(content.getValue());
+      }
+
+      bytes += entry.getSize();
+    }
+
+    ArchiveExploder.writeNodes(changed, directory, executor);
+
+    // Delete removed entries, deepest paths first so directories are empty.
+    List<String> removed = new ArrayList<String>();
+
+    for (Object path : manifest.keySet()) {
+      if (!entries.containsKey(path)) {
+        removed.add((String) path);
+      }
+    }
+
+    Collections.sort(removed, Collections.reverseOrder());
+
+    for (String path : removed) {
+      File file = new File(directory, path.startsWith("/") ? path.substring(1) : path);
+
+      if (file.isDirectory()) {
+        // Resin may have put files of its own there, leave those alone.
+        file.delete();
+      } else if (file.exists() && !file.delete()) {
+        throw new IOException("Failed to delete " + file);
+      }
+    }
+
+    storeManifest(manifestFile, entries);
+
+    log.fine(String.format("Synchronized %s with web archive %s, wrote %d files (%d bytes) and deleted %d entries.", directory, archive.getName(), changed.size(), bytes, removed.size()));
+
+    return changed.size() + removed.size();
+  }
+
+  private static Properties loadManifest(File manifestFile) throws IOException
+  {
+    Properties manifest = new Properties();
+
+    if (!manifestFile.exists()) {
+      return manifest;
+    }
+
+    InputStream in = new FileInputStream(manifestFile);
+
+    try {
+      manifest.load(in);
+    } catch (IllegalArgumentException e) {
+      log.warning(String.format("Ignoring corrupt deployment manifest %s, rewriting all entries: %s", manifestFile, e.getMessage()));
+
+      return new Properties();
+    } finally {
+      in.close();
+    }
+
+    return manifest;
+  }
+
+  /**
+   * Parses a manifest entry, null if it is corrupt so the entry is
+   * rewritten.
+   */
+  private static ArchiveDigest.Entry parseEntry(String value)
+  {
+    try {
+      return ArchiveDigest.Entry.parse(value);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static void storeManifest(File manifestFile,
+                                    Map<String, ArchiveDigest.Entry> entries)
+    throws IOException
+  {
+    Properties manifest = new Properties();
+
+    for (Map.Entry<String, ArchiveDigest.Entry> entry : entries.entrySet()) {
+      manifest.setProperty(entry.getKey(), entry.getValue().toString());
+    }
+
+    // Write to a temporary file first so an interrupted write never leaves
+    // a manifest that does not match the directory.
+    File temporaryFile = new File(manifestFile.getPath() + ".tmp");
+    OutputStream out = new FileOutputStream(temporaryFile);
+
+    try {
+      manifest.store(out, null);
+    } finally {
+      out.close();
+    }
+
+    if (!temporaryFile.renameTo(manifestFile)) {
+      throw new IOException("Failed to rename " + temporaryFile + " to " + manifestFile);
+    }
+  }
+}
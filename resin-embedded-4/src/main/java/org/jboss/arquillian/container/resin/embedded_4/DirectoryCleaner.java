@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes directory trees using a pool of threads, either synchronously or
+ * on a background thread the JVM waits for on shutdown.
+ * 
+ * @version $Revision: $
+ */
+final class DirectoryCleaner {
+  private static final Logger log = 
+    Logger.getLogger(DirectoryCleaner.class.getName());
+
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+  private static final int BATCH_SIZE = 256;
+
+  private static final AtomicInteger _threadCount = new AtomicInteger();
+  private static final List<Thread> _pending = new ArrayList<Thread>();
+  private static boolean _shutdownHookRegistered;
+
+  private DirectoryCleaner()
+  {
+  }
+
+  /**
+   * Deletes a file or directory tree. Files are deleted in parallel batches,
+   * directories afterwards, deepest first.
+   */
+  static void delete(File file) throws IOException
+  {
+    if (!file.isDirectory()) {
+      if (file.exists() && !file.delete()) {
+        throw new IOException("Failed to delete " + file);
+      }
+
+      return;
+    }
+
+    List<File> files = new ArrayList<File>();
+    List<File> directories = new ArrayList<File>();
+
+    collect(file, files, directories);
+
+    if (files.size() <= BATCH_SIZE || THREADS == 1) {
+      deleteFiles(files);
+    } else {
+      deleteFilesInParallel(files);
+    }
+
+    // Collected parents first, so reverse order deletes children first.
+    Collections.reverse(directories);
+    deleteFiles(directories);
+  }
+
+  /**
+   * Deletes a file or directory tree on a background thread. The JVM waits
+   * for the deletion to finish before it exits.
+   */
+  static void deleteInBackground(final File file)
+  {
+    start(new Runnable() {
+      @Override
+      public void run()
+      {
+        try {
+          delete(file);
+        } catch (IOException e) {
+          log.log(Level.WARNING, "Failed to delete " + file, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Deletes directories below the root whose names start with the prefix and
+   * whose lock can be acquired, i.e. that were left behind by crashed runs.
+   * The sweep runs on a background thread.
+   */
+  static void sweepInBackground(final File root, final String prefix)
+  {
+    start(new Runnable() {
+      @Override
+      public void run()
+      {
+        File[] directories = root.listFiles();
+
+        if (directories == null) {
+          return;
+        }
+
+        for (File directory : directories) {
+          if (directory.isDirectory() && directory.getName().startsWith(prefix)
+              && WorkingDirectoryLock.hasSettledLockFile(directory)) {
+            sweep(directory);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Waits for all background deletions started so far.
+   */
+  static void awaitBackgroundDeletions() throws InterruptedException
+  {
+    List<Thread> pending;
+
+    synchronized (_pending) {
+      pending = new ArrayList<Thread>(_pending);
+    }
+
+    for (Thread thread : pending) {
+      thread.join();
+    }
+  }
+
+  private static void sweep(File directory)
+  {
+    try {
+      WorkingDirectoryLock lock = WorkingDirectoryLock.acquire(directory);
+
+      if (lock == null) {
+        return;
+      }
+
+      log.info(String.format("Removing working directory %s left over from a previous Resin 4 embedded container.", directory.getAbsolutePath()));
+
+      try {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+          throw new IOException("Error listing files for " + directory);
+        }
+
+        for (File file : files) {
+          if (!file.getName().equals(WorkingDirectoryLock.LOCK_FILE)) {
+            delete(file);
+          }
+        }
+      } finally {
+        lock.release();
+      }
+
+      delete(directory);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to remove left over working directory " + directory, e);
+    }
+  }
+
+  private static void start(final Runnable task)
+  {
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run()
+      {
+        try {
+          task.run();
+        } finally {
+          synchronized (_pending) {
+            _pending.remove(Thread.currentThread());
+          }
+        }
+      }
+    }, "resin-embedded-cleaner-" + _threadCount.incrementAndGet());
+
+    thread.setDaemon(true);
+
+    synchronized (_pending) {
+      registerShutdownHook();
+      _pending.add(thread);
+    }
+
+    thread.start();
+  }
+
+  private static void registerShutdownHook()
+  {
+    if (_shutdownHookRegistered) {
+      return;
+    }
+
+    Runtime.getRuntime().addShutdownHook(new Thread("resin-embedded-cleaner-shutdown") {
+      @Override
+      public void run()
+      {
+        try {
+          awaitBackgroundDeletions();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+
+    _shutdownHookRegistered = true;
+  }
+
+  private static void collect(File directory, List<File> files, List<File> directories)
+    throws IOException
+  {
+    directories.add(directory);
+
+    File[] children = directory.listFiles();
+
+    if (children == null) {
+      throw new IOException("Error listing files for " + directory);
+    }
+
+    for (File child : children) {
+      if (child.isDirectory()) {
+        collect(child, files, directories);
+      } else {
+        files.add(child);
+      }
+    }
+  }
+
+  private static void deleteFiles(List<File> files) throws IOException
+  {
+    for (File file : files) {
+      if (!file.delete() && file.exists()) {
+        throw new IOException("Failed to delete " + file);
+      }
+    }
+  }
+
+  private static void deleteFilesInParallel(List<File> files) throws IOException
+  {
+    ExecutorService executor = 
+      Executors.newFixedThreadPool(THREADS, new DaemonThreadFactory("resin-embedded-cleaner-worker"));
+
+    try {
+      List<Future<?>> batches = new ArrayList<Future<?>>();
+
+      for (int i = 0; i < files.size(); i += BATCH_SIZE) {
+        final List<File> batch = files.subList(i, Math.min(i + BATCH_SIZE, files.size()));
+
+        batches.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException
+          {
+            deleteFiles(batch);
+            return null;
+          }
+        }));
+      }
+
+      for (Future<?> batch : batches) {
+        batch.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while deleting files.");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      throw new IOException("Failed to delete files", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+/**
+ * Histogram of latencies in nanoseconds with logarithmic buckets, each split
+ * into linear sub-buckets, in the style of HdrHistogram. Values are tracked
+ * with a relative error below 1/64 at constant memory. Not thread safe;
+ * record into one histogram per thread and add them up.
+ * 
+ * @version $Revision: $
+ */
+final class LatencyHistogram {
+  // Values below 2^SUB_BUCKET_BITS are tracked exactly.
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+
+  private static final int BUCKET_COUNT = 
+    SUB_BUCKET_COUNT + (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT;
+
+  private final long[] _counts = new long[BUCKET_COUNT];
+
+  private long _count;
+  private long _total;
+  private long _min = Long.MAX_VALUE;
+  private long _max;
+
+  /**
+   * Records a value, negative values are recorded as 0.
+   */
+  void record(long value)
+  {
+    value = Math.max(0, value);
+
+    _counts[getIndex(value)]++;
+    _count++;
+    _total += value;
+    _min = Math.min(_min, value);
+    _max = Math.max(_max, value);
+  }
+
+  /**
+   * Adds the values recorded by the other histogram to this one.
+   */
+  void add(LatencyHistogram histogram)
+  {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      _counts[i] += histogram._counts[i];
+    }
+
+    _count += histogram._count;
+    _total += histogram._total;
+    _min = Math.min(_min, histogram._min);
+    _max = Math.max(_max, histogram._max);
+  }
+
+  long getCount()
+  {
+    return _count;
+  }
+
+  long getMin()
+  {
+    return _count == 0 ? 0 : _min;
+  }
+
+  long getMax()
+  {
+    return _max;
+  }
+
+  double getMean()
+  {
+    return _count == 0 ? 0 : (double) _total / _count;
+  }
+
+  /**
+   * Returns the value that the given percentage of recorded values is equal
+   * to or below of, e.g. 99.9 for the 99.9th percentile. The value is the
+   * highest one of its bucket, but never above the maximum recorded.
+   */
+  long getValueAtPercentile(double percentile)
+  {
+    if (_count == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * _count));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += _counts[i];
+
+      if (seen >= rank) {
+        return Math.min(getHighestValue(i), _max);
+      }
+    }
+
+    return _max;
+  }
+
+  static int getIndex(long value)
+  {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+
+    // Keeps the top SUB_BUCKET_BITS bits of the value.
+    int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift);
+
+    return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT 
+      + subBucket - HALF_SUB_BUCKET_COUNT;
+  }
+
+  static long getHighestValue(int index)
+  {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Tracks the class loaders of removed web applications through weak
+ * references and reports the ones still reachable after a number of full
+ * or old generation garbage collections, confirmed by one more requested
+ * collection, with the references most likely holding them:
+ * threads, including timer threads, running with or loaded by the class
+ * loader, thread local values and JDBC drivers loaded by it. Also logs the
+ * heap, Metaspace or PermGen and loaded classes after each removal, so a
+ * growing trend shows up before the build runs out of memory.
+ * 
+ * @version $Revision: $
+ */
+final class LeakDetector {
+  private static final Logger log = 
+    Logger.getLogger(LeakDetector.class.getName());
+
+  // Young collections never unload classes, and pause counters duplicate
+  // the cycles of concurrent collectors.
+  private static final String[] YOUNG_COLLECTORS = {
+    "Copy", "PS Scavenge", "ParNew", "G1 Young Generation"
+  };
+
+  private final int _collections;
+  private final ReferenceQueue<ClassLoader> _queue = new ReferenceQueue<ClassLoader>();
+  private final List<Tracked> _tracked = new ArrayList<Tracked>();
+
+  private long _removed;
+  private long _leaked;
+  private long _lastHeap = -1;
+  private long _lastClassMemory = -1;
+  private long _lastClasses = -1;
+
+  /**
+   * @param collections garbage collections after which a class loader that
+   * is still reachable is reported
+   */
+  LeakDetector(int collections)
+  {
+    _collections = collections;
+  }
+
+  /**
+   * Starts tracking the class loader of a web application that was just
+   * removed. Class loaders due are reported by the next check, when the
+   * caller no longer holds this one.
+   */
+  synchronized void track(String name, ClassLoader classLoader)
+  {
+    _tracked.add(new Tracked(name, classLoader, _queue, getCollectionCount()));
+    _removed++;
+
+    logMemory(name);
+  }
+
+  /**
+   * Reports the class loaders still reachable after the configured number
+   * of garbage collections.
+   */
+  synchronized void check()
+  {
+    expunge();
+
+    long collections = getCollectionCount();
+    List<Tracked> due = new ArrayList<Tracked>();
+
+    for (Tracked tracked : _tracked) {
+      if (!tracked._reported && collections - tracked._collections >= _collections) {
+        due.add(tracked);
+      }
+    }
+
+    if (due.isEmpty()) {
+      return;
+    }
+
+    // A collection that did not reach the class loader is no proof of a
+    // leak, so one more is requested before reporting.
+    System.gc();
+    expunge();
+
+    for (Tracked tracked : due) {
+      report(tracked, collections - tracked._collections);
+    }
+  }
+
+  /**
+   * Returns the number of class loaders reported as still reachable and
+   * not collected since.
+   */
+  synchronized long getLeaked()
+  {
+    return _leaked;
+  }
+
+  /**
+   * Runs the configured number of garbage collections to decide on all
+   * tracked class loaders, then reports them and logs a summary.
+   */
+  synchronized void finish()
+  {
+    for (int i = 0; i < _collections && !_tracked.isEmpty(); i++) {
+      System.gc();
+      expunge();
+    }
+
+    // Counts the explicit collections even if the collector ignored them.
+    for (Tracked tracked : _tracked) {
+      if (!tracked._reported) {
+        report(tracked, Math.max(_collections, getCollectionCount() - tracked._collections));
+      }
+    }
+
+    log.info(String.format("Leak detection: %d web applications removed, %d class loaders still reachable.", _removed, _leaked));
+
+    _tracked.clear();
+  }
+
+  private void expunge()
+  {
+    Reference<? extends ClassLoader> reference;
+
+    while ((reference = _queue.poll()) != null) {
+      for (Iterator<Tracked> i = _tracked.iterator(); i.hasNext();) {
+        Tracked tracked = i.next();
+
+        if (tracked == reference) {
+          if (tracked._reported) {
+            log.info(String.format("Class loader of web application %s was collected after all.", tracked._name));
+            _leaked--;
+          }
+
+          i.remove();
+        }
+      }
+    }
+  }
+
+  private void report(Tracked tracked, long collections)
+  {
+    ClassLoader classLoader = tracked.get();
+
+    if (classLoader == null) {
+      return;
+    }
+
+    tracked._reported = true;
+    _leaked++;
+
+    List<String> suspects = findSuspects(classLoader);
+    StringBuilder message = new StringBuilder();
+
+    message.append(String.format("Class loader of web application %s is still reachable %d garbage collections after it was removed.", tracked._name, collections));
+
+    if (suspects.isEmpty()) {
+      message.append(" No suspected references found, take a heap dump to find the GC roots holding it.");
+    } else {
+      message.append(" Suspected references:");
+
+      for (String suspect : suspects) {
+        message.append("\n  ").append(suspect);
+      }
+    }
+
+    log.warning(message.toString());
+  }
+
+  /**
+   * Finds common references that keep a web application class loader
+   * alive. Inspecting thread locals and registered drivers needs access to
+   * JDK internals; they are skipped where that is denied.
+   */
+  private static List<String> findSuspects(ClassLoader classLoader)
+  {
+    List<String> suspects = new ArrayList<String>();
+
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (isLoadedBy(thread.getClass(), classLoader)) {
+        suspects.add(String.format("thread \"%s\" of class %s loaded by it", thread.getName(), thread.getClass().getName()));
+      } else if (isChild(thread.getContextClassLoader(), classLoader)) {
+        suspects.add(String.format("thread \"%s\" (%s) has it as context class loader", thread.getName(), thread.getClass().getName()));
+      }
+
+      findThreadLocals(thread, classLoader, suspects);
+    }
+
+    for (Driver driver : getDrivers()) {
+      if (isLoadedBy(driver.getClass(), classLoader)) {
+        suspects.add(String.format("JDBC driver %s loaded by it is still registered", driver.getClass().getName()));
+      }
+    }
+
+    return suspects;
+  }
+
+  private static void findThreadLocals(Thread thread, ClassLoader classLoader,
+                                       List<String> suspects)
+  {
+    try {
+      for (String name : new String[] { "threadLocals", "inheritableThreadLocals" }) {
+        Object map = getField(Thread.class, name, thread);
+
+        if (map == null) {
+          continue;
+        }
+
+        Object table = getField(map.getClass(), "table", map);
+
+        for (int i = 0; table != null && i < Array.getLength(table); i++) {
+          Object entry = Array.get(table, i);
+
+          if (entry == null) {
+            continue;
+          }
+
+          Object key = ((Reference<?>) entry).get();
+          Object value = getField(entry.getClass(), "value", entry);
+
+          if ((key != null && isLoadedBy(key.getClass(), classLoader))
+              || (value != null && (value == classLoader || isLoadedBy(value.getClass(), classLoader)))) {
+            suspects.add(String.format("thread local of thread \"%s\" holds %s", thread.getName(), value != null ? value.getClass().getName() : key.getClass().getName()));
+          }
+        }
+      }
+    } catch (Exception e) {
+      // Not accessible on this JVM.
+    }
+  }
+
+  private static List<Driver> getDrivers()
+  {
+    List<Driver> drivers = new ArrayList<Driver>();
+
+    // DriverManager only lists drivers visible to the caller, so the list
+    // is read directly where possible.
+    for (String name : new String[] { "registeredDrivers", "writeDrivers", "drivers" }) {
+      try {
+        Object infos = getField(DriverManager.class, name, null);
+
+        if (infos instanceof Iterable<?>) {
+          for (Object info : (Iterable<?>) infos) {
+            Object driver = info instanceof Driver ? info : getField(info.getClass(), "driver", info);
+
+            if (driver instanceof Driver) {
+              drivers.add((Driver) driver);
+            }
+          }
+
+          return drivers;
+        }
+      } catch (Exception e) {
+        // Not accessible on this JVM.
+      }
+    }
+
+    for (Enumeration<Driver> e = DriverManager.getDrivers(); e.hasMoreElements();) {
+      drivers.add(e.nextElement());
+    }
+
+    return drivers;
+  }
+
+  private static Object getField(Class<?> type, String name, Object target)
+    throws Exception
+  {
+    Field field = type.getDeclaredField(name);
+
+    field.setAccessible(true);
+
+    return field.get(target);
+  }
+
+  private static boolean isLoadedBy(Class<?> type, ClassLoader classLoader)
+  {
+    return isChild(type.getClassLoader(), classLoader);
+  }
+
+  private static boolean isChild(ClassLoader loader, ClassLoader classLoader)
+  {
+    for (; loader != null; loader = loader.getParent()) {
+      if (loader == classLoader) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Logs the heap after the last collection, the memory for classes and
+   * the loaded classes, with their change since the previous removal.
+   */
+  private void logMemory(String name)
+  {
+    long heap = 0;
+    long classMemory = 0;
+
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        MemoryUsage usage = pool.getCollectionUsage();
+
+        // Zero until the pool was collected for the first time.
+        if (usage == null || usage.getUsed() == 0) {
+          usage = pool.getUsage();
+        }
+
+        heap += usage.getUsed();
+      } else if (pool.getName().contains("Metaspace") || pool.getName().contains("Perm Gen")) {
+        classMemory += pool.getUsage().getUsed();
+      }
+    }
+
+    long classes = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+
+    log.info(String.format("After removing web application %s: heap %d KB (%+d KB), class metadata %d KB (%+d KB), %d classes loaded (%+d).",
+                           name,
+                           heap / 1024, _lastHeap < 0 ? 0 : (heap - _lastHeap) / 1024,
+                           classMemory / 1024, _lastClassMemory < 0 ? 0 : (classMemory - _lastClassMemory) / 1024,
+                           classes, _lastClasses < 0 ? 0 : classes - _lastClasses));
+
+    _lastHeap = heap;
+    _lastClassMemory = classMemory;
+    _lastClasses = classes;
+  }
+
+  /**
+   * Returns the number of collections by collectors other than young
+   * generation ones, or of all collections if there are only those.
+   */
+  private static long getCollectionCount()
+  {
+    long count = 0;
+    long oldCount = 0;
+    boolean oldCollector = false;
+
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      long collections = Math.max(0, collector.getCollectionCount());
+
+      count += collections;
+
+      if (isOldCollector(collector.getName())) {
+        oldCount += collections;
+        oldCollector = true;
+      }
+    }
+
+    return oldCollector ? oldCount : count;
+  }
+
+  private static boolean isOldCollector(String name)
+  {
+    for (String young : YOUNG_COLLECTORS) {
+      if (young.equals(name)) {
+        return false;
+      }
+    }
+
+    return !name.contains("Minor") && !name.endsWith("Pauses");
+  }
+
+  private static final class Tracked extends WeakReference<ClassLoader> {
+    private final String _name;
+    private final long _collections;
+    private boolean _reported;
+
+    Tracked(String name, ClassLoader classLoader,
+            ReferenceQueue<ClassLoader> queue, long collections)
+    {
+      super(classLoader, queue);
+
+      _name = name;
+      _collections = collections;
+    }
+  }
+}
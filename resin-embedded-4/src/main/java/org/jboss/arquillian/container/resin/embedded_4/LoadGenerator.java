@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends GET requests from a number of concurrent clients to the deployment
+ * under test, for a number of requests or a duration, and measures
+ * throughput and latency. Injected into fields and test method parameters of
+ * this type by {@link LoadGeneratorTestEnricher}, e.g.
+ * 
+ * <pre>
+ * &#064;Test &#064;RunAsClient
+ * public void shouldServeQuickly(LoadGenerator load) throws Exception
+ * {
+ *   LoadResult result = load.runRequests("/hello", 8, 10000);
+ * 
+ *   Assert.assertTrue(result.getLatency(99, TimeUnit.MILLISECONDS) &lt; 5);
+ * }
+ * </pre>
+ * 
+ * @version $Revision: $
+ */
+public final class LoadGenerator {
+  private static final int TIMEOUT = 30 * 1000;
+
+  private final String _baseUrl;
+
+  /**
+   * Creates a generator for URLs relative to the given base URL, usually the
+   * deployment's context root.
+   */
+  public LoadGenerator(String baseUrl)
+  {
+    _baseUrl = baseUrl.endsWith("/") 
+      ? baseUrl.substring(0, baseUrl.length() - 1)
+      : baseUrl;
+  }
+
+  public String getBaseUrl()
+  {
+    return _baseUrl;
+  }
+
+  /**
+   * Sends the given total number of requests to the path, relative to the
+   * base URL, from the given number of concurrent clients.
+   */
+  public LoadResult runRequests(String path, int clients, long requests)
+    throws IOException, InterruptedException
+  {
+    return run(path, clients, requests, Long.MAX_VALUE);
+  }
+
+  /**
+   * Sends requests to the path, relative to the base URL, from the given
+   * number of concurrent clients for the given duration.
+   */
+  public LoadResult runFor(String path, int clients, long duration, 
+                           TimeUnit unit)
+    throws IOException, InterruptedException
+  {
+    return run(path, clients, Long.MAX_VALUE, unit.toNanos(duration));
+  }
+
+  private LoadResult run(String path, int clients, final long requests,
+                         long duration)
+    throws IOException, InterruptedException
+  {
+    if (clients < 1) {
+      throw new IllegalArgumentException("At least one client is needed.");
+    }
+
+    final URL url = getUrl(path);
+    final AtomicLong issued = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final long start = System.nanoTime();
+    final long deadline = duration == Long.MAX_VALUE ? Long.MAX_VALUE : start + duration;
+
+    List<Callable<LatencyHistogram>> tasks = new ArrayList<Callable<LatencyHistogram>>();
+
+    for (int i = 0; i < clients; i++) {
+      tasks.add(new Callable<LatencyHistogram>() {
+        @Override
+        public LatencyHistogram call()
+        {
+          LatencyHistogram histogram = new LatencyHistogram();
+
+          while (issued.incrementAndGet() <= requests
+                 && (deadline == Long.MAX_VALUE || System.nanoTime() < deadline)) {
+            long begin = System.nanoTime();
+
+            if (!send(url)) {
+              failures.incrementAndGet();
+            }
+
+            histogram.record(System.nanoTime() - begin);
+          }
+
+          return histogram;
+        }
+      });
+    }
+
+    ExecutorService executor = 
+      Executors.newFixedThreadPool(clients, new DaemonThreadFactory("resin-embedded-load"));
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    try {
+      for (Future<LatencyHistogram> future : executor.invokeAll(tasks)) {
+        histogram.add(future.get());
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return new LoadResult(histogram, failures.get(), System.nanoTime() - start);
+  }
+
+  private URL getUrl(String path) throws MalformedURLException
+  {
+    if (path.contains("://")) {
+      return new URL(path);
+    }
+
+    return new URL(_baseUrl + (path.startsWith("/") ? path : "/" + path));
+  }
+
+  /**
+   * Sends a GET request and reads the response fully, so the connection is
+   * kept alive. Returns false if the request failed.
+   */
+  private static boolean send(URL url)
+  {
+    HttpURLConnection connection = null;
+
+    try {
+      connection = (HttpURLConnection) url.openConnection();
+      connection.setConnectTimeout(TIMEOUT);
+      connection.setReadTimeout(TIMEOUT);
+
+      int status = connection.getResponseCode();
+      InputStream in = status < 400 
+        ? connection.getInputStream()
+        : connection.getErrorStream();
+
+      if (in != null) {
+        try {
+          byte[] buffer = new byte[8192];
+
+          while (in.read(buffer) >= 0) {
+          }
+        } finally {
+          in.close();
+        }
+      }
+
+      return status < 400;
+    } catch (IOException e) {
+      if (connection != null) {
+        connection.disconnect();
+      }
+
+      return false;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "LoadGenerator[" + _baseUrl + "]";
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.jboss.arquillian.container.spi.client.protocol.metadata.HTTPContext;
+import org.jboss.arquillian.container.spi.client.protocol.metadata.ProtocolMetaData;
+import org.jboss.arquillian.container.spi.client.protocol.metadata.Servlet;
+import org.jboss.arquillian.core.api.Instance;
+import org.jboss.arquillian.core.api.annotation.Inject;
+import org.jboss.arquillian.test.spi.TestEnricher;
+
+/**
+ * Injects a {@link LoadGenerator} for the current deployment into test
+ * fields and test method parameters of that type. Runs on the client side,
+ * so it applies to tests run as client.
+ * 
+ * @version $Revision: $
+ */
+public class LoadGeneratorTestEnricher implements TestEnricher {
+  @Inject
+  private Instance<ProtocolMetaData> _protocolMetaData;
+
+  /**
+   * @see TestEnricher#enrich(Object)
+   */
+  @Override
+  public void enrich(Object testCase)
+  {
+    for (Class<?> type = testCase.getClass(); type != Object.class; type = type.getSuperclass()) {
+      for (Field field : type.getDeclaredFields()) {
+        if (field.getType() != LoadGenerator.class) {
+          continue;
+        }
+
+        try {
+          field.setAccessible(true);
+
+          if (field.get(testCase) == null) {
+            field.set(testCase, createLoadGenerator());
+          }
+        } catch (IllegalAccessException e) {
+          throw new IllegalStateException(String.format("Failed to inject load generator into %s.", field), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * @see TestEnricher#resolve(Method)
+   */
+  @Override
+  public Object[] resolve(Method method)
+  {
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    Object[] values = new Object[parameterTypes.length];
+
+    for (int i = 0; i < parameterTypes.length; i++) {
+      if (parameterTypes[i] == LoadGenerator.class) {
+        values[i] = createLoadGenerator();
+      }
+    }
+
+    return values;
+  }
+
+  /**
+   * Creates a load generator for the context root of the current
+   * deployment, or the server root if the deployment has no servlets.
+   */
+  private LoadGenerator createLoadGenerator()
+  {
+    ProtocolMetaData metaData = _protocolMetaData.get();
+
+    if (metaData == null || !metaData.hasContext(HTTPContext.class)) {
+      throw new IllegalStateException("No deployment to generate load for, the deployment is not active or not deployed to an HTTP container.");
+    }
+
+    HTTPContext context = metaData.getContexts(HTTPContext.class).iterator().next();
+    String baseUrl = String.format("http://%s:%d", context.getHost(), context.getPort());
+    List<Servlet> servlets = context.getServlets();
+
+    if (!servlets.isEmpty()) {
+      baseUrl += servlets.get(0).getContextRoot();
+    }
+
+    return new LoadGenerator(baseUrl);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles of a {@link LoadGenerator} run.
+ * Latencies include failed requests.
+ * 
+ * @version $Revision: $
+ */
+public final class LoadResult {
+  private final LatencyHistogram _histogram;
+  private final long _failures;
+  private final long _duration;
+
+  LoadResult(LatencyHistogram histogram, long failures, long duration)
+  {
+    _histogram = histogram;
+    _failures = failures;
+    _duration = duration;
+  }
+
+  /**
+   * Number of requests sent.
+   */
+  public long getRequests()
+  {
+    return _histogram.getCount();
+  }
+
+  /**
+   * Number of requests that failed with an I/O error or an HTTP status of 400
+   * or above.
+   */
+  public long getFailures()
+  {
+    return _failures;
+  }
+
+  /**
+   * Wall clock time of the run.
+   */
+  public long getDuration(TimeUnit unit)
+  {
+    return unit.convert(_duration, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Requests per second.
+   */
+  public double getThroughput()
+  {
+    return _duration == 0 ? 0 : getRequests() * 1e9 / _duration;
+  }
+
+  /**
+   * Latency that the given percentage of requests took at most, e.g. 99.9
+   * for the 99.9th percentile.
+   */
+  public long getLatency(double percentile, TimeUnit unit)
+  {
+    return unit.convert(_histogram.getValueAtPercentile(percentile), TimeUnit.NANOSECONDS);
+  }
+
+  public long getMinLatency(TimeUnit unit)
+  {
+    return unit.convert(_histogram.getMin(), TimeUnit.NANOSECONDS);
+  }
+
+  public long getMeanLatency(TimeUnit unit)
+  {
+    return unit.convert((long) _histogram.getMean(), TimeUnit.NANOSECONDS);
+  }
+
+  public long getMaxLatency(TimeUnit unit)
+  {
+    return unit.convert(_histogram.getMax(), TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("%d requests, %d failed, %.1f requests/s, latency in us: mean %d, p50 %d, p90 %d, p99 %d, p99.9 %d, max %d", getRequests(), getFailures(), getThroughput(), getMeanLatency(TimeUnit.MICROSECONDS), getLatency(50, TimeUnit.MICROSECONDS), getLatency(90, TimeUnit.MICROSECONDS), getLatency(99, TimeUnit.MICROSECONDS), getLatency(99.9, TimeUnit.MICROSECONDS), getMaxLatency(TimeUnit.MICROSECONDS));
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Logging handler that keeps the latest log records of one deployment in a
+ * fixed-size ring buffer, so its memory use is bounded. Publishing only
+ * stores the record in the next slot without locking or formatting; records
+ * are formatted when the buffer is written to a file, which only happens
+ * for a failed test. Records are attributed to the deployment by the
+ * context class loader of the logging thread, or by the deploying thread
+ * while the web application starts.
+ * 
+ * @version $Revision: $
+ */
+final class LogCapture extends Handler {
+  // Rough size of a record apart from its message, for the memory report.
+  private static final int RECORD_OVERHEAD = 128;
+
+  private final String _archiveName;
+  private final File _directory;
+  private final AtomicReferenceArray<LogRecord> _records;
+  private final AtomicLong _published = new AtomicLong();
+
+  private volatile Thread _deployingThread;
+  private volatile ClassLoader _classLoader;
+
+  LogCapture(String archiveName, int capacity, File directory)
+  {
+    _archiveName = archiveName;
+    _directory = directory;
+    _records = new AtomicReferenceArray<LogRecord>(capacity);
+
+    setLevel(Level.ALL);
+    setFormatter(new SimpleFormatter());
+  }
+
+  /**
+   * Starts capturing the log records of the current thread, which deploys
+   * the web application.
+   */
+  void install()
+  {
+    _deployingThread = Thread.currentThread();
+
+    Logger.getLogger("").addHandler(this);
+  }
+
+  /**
+   * Captures the log records of the threads running in the deployed web
+   * application from now on.
+   */
+  void setClassLoader(ClassLoader classLoader)
+  {
+    _classLoader = classLoader;
+    _deployingThread = null;
+  }
+
+  void uninstall()
+  {
+    Logger.getLogger("").removeHandler(this);
+
+    // Must not keep the removed web application alive.
+    _classLoader = null;
+    _deployingThread = null;
+  }
+
+  /**
+   * @see Handler#publish(LogRecord)
+   */
+  @Override
+  public void publish(LogRecord record)
+  {
+    if (!isLoggable(record) || !isDeploymentThread()) {
+      return;
+    }
+
+    long sequence = _published.getAndIncrement();
+
+    _records.set((int) (sequence % _records.length()), record);
+  }
+
+  private boolean isDeploymentThread()
+  {
+    Thread thread = Thread.currentThread();
+
+    if (thread == _deployingThread) {
+      return true;
+    }
+
+    ClassLoader classLoader = _classLoader;
+
+    if (classLoader == null) {
+      return false;
+    }
+
+    // Resin runs JSPs and the like in child class loaders.
+    for (ClassLoader loader = thread.getContextClassLoader(); loader != null; loader = loader.getParent()) {
+      if (loader == classLoader) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * @see Handler#flush()
+   */
+  @Override
+  public void flush()
+  {
+  }
+
+  /**
+   * @see Handler#close()
+   */
+  @Override
+  public void close()
+  {
+    uninstall();
+  }
+
+  /**
+   * Returns the captured records, oldest first. Records published while
+   * the snapshot is taken may be missing.
+   */
+  List<LogRecord> getRecords()
+  {
+    long end = _published.get();
+    long start = Math.max(0, end - _records.length());
+    List<LogRecord> records = new ArrayList<LogRecord>();
+
+    for (long sequence = start; sequence < end; sequence++) {
+      LogRecord record = _records.get((int) (sequence % _records.length()));
+
+      if (record != null) {
+        records.add(record);
+      }
+    }
+
+    return records;
+  }
+
+  /**
+   * Writes the captured records to a file named after the test in the
+   * directory of the deployment and returns it.
+   */
+  File dump(String testName) throws IOException
+  {
+    File directory = new File(_directory, _archiveName);
+    File file = new File(directory, testName.replaceAll("[^A-Za-z0-9._-]", "_") + ".log");
+
+    directory.mkdirs();
+
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+    try {
+      for (LogRecord record : getRecords()) {
+        out.write(format(record));
+      }
+    } finally {
+      out.close();
+    }
+
+    return file;
+  }
+
+  /**
+   * Formats a record like the test Resin configuration does on the
+   * console.
+   */
+  private String format(LogRecord record)
+  {
+    Formatter formatter = getFormatter();
+    StringBuilder line = new StringBuilder();
+
+    line.append(String.format("[%1$ty-%1$tm-%1$td %1$tH:%1$tM:%1$tS.%1$tL] {%2$d} %3$s %4$s: %5$s%n",
+                              new Date(record.getMillis()),
+                              record.getThreadID(),
+                              record.getLevel(),
+                              record.getLoggerName(),
+                              formatter.formatMessage(record)));
+
+    if (record.getThrown() != null) {
+      StringWriter stackTrace = new StringWriter();
+      record.getThrown().printStackTrace(new PrintWriter(stackTrace));
+      line.append(stackTrace);
+    }
+
+    return line.toString();
+  }
+
+  /**
+   * Describes how many records were captured and roughly how much memory
+   * the buffer holds.
+   */
+  String getSummary()
+  {
+    long published = _published.get();
+    long bytes = (long) _records.length() * 8;
+
+    for (LogRecord record : getRecords()) {
+      bytes += RECORD_OVERHEAD;
+
+      if (record.getMessage() != null) {
+        bytes += record.getMessage().length() * 2;
+      }
+    }
+
+    return String.format("%d log records of web archive %s captured, %d overwritten, buffer of %d records holds about %d KB",
+                         published, _archiveName, Math.max(0, published - _records.length()), _records.length(), bytes / 1024);
+  }
+}
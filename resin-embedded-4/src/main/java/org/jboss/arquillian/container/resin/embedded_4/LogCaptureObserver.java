@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.container.spi.client.protocol.metadata.ProtocolMetaData;
+import org.jboss.arquillian.core.api.Instance;
+import org.jboss.arquillian.core.api.annotation.Inject;
+import org.jboss.arquillian.core.api.annotation.Observes;
+import org.jboss.arquillian.core.spi.EventContext;
+import org.jboss.arquillian.test.spi.TestResult;
+import org.jboss.arquillian.test.spi.event.suite.Test;
+
+/**
+ * Writes the captured logs of the deployment to a file when a test in it
+ * fails.
+ * 
+ * @version $Revision: $
+ */
+public class LogCaptureObserver {
+  private static final Logger log = 
+    Logger.getLogger(LogCaptureObserver.class.getName());
+
+  @Inject
+  private Instance<ProtocolMetaData> _protocolMetaData;
+
+  @Inject
+  private Instance<TestResult> _testResult;
+
+  // Runs inside the observers that activate the deployment context.
+  public void dumpOnFailure(@Observes(precedence = -100) EventContext<Test> context)
+  {
+    context.proceed();
+
+    TestResult result = _testResult.get();
+    ProtocolMetaData metaData = _protocolMetaData.get();
+
+    if (result == null || result.getStatus() != TestResult.Status.FAILED
+        || metaData == null || !metaData.hasContext(LogCapture.class)) {
+      return;
+    }
+
+    Test test = context.getEvent();
+    String testName = test.getTestClass().getName() + "." + test.getTestMethod().getName();
+
+    for (LogCapture capture : metaData.getContexts(LogCapture.class)) {
+      try {
+        File file = capture.dump(testName);
+
+        log.info(String.format("Test %s failed, wrote captured Resin logs to %s.", testName, file.getAbsolutePath()));
+      } catch (IOException e) {
+        log.log(Level.WARNING, String.format("Failed to write captured Resin logs of test %s.", testName), e);
+      }
+    }
+  }
+}
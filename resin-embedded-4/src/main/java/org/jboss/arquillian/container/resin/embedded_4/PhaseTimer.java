@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Times the lifecycle phases of a container. Every phase is logged at FINE
+ * level as it ends, and the totals can be written to a report file in
+ * properties format when the container stops.
+ * 
+ * @version $Revision: $
+ */
+final class PhaseTimer {
+  private static final Logger log = 
+    Logger.getLogger(PhaseTimer.class.getName());
+
+  /**
+   * Timed container lifecycle phases.
+   */
+  enum Phase {
+    CREATE_WORKING_DIRECTORY("createWorkingDirectory"),
+    CONSTRUCT("construct"),
+    START("start"),
+    STRIP_SHARED_LIBRARIES("stripSharedLibraries"),
+    DIGEST("digest"),
+    EXPORT("export"),
+    EXPLODE("explode"),
+    ADD_WEB_APP("addWebApp"),
+    REUSE_WEB_APP("reuseWebApp"),
+    PREFILL_DATA_SOURCES("prefillDataSources"),
+    COLLECT_METADATA("collectMetadata"),
+    WARMUP("warmup"),
+    REMOVE_WEB_APP("removeWebApp"),
+    STOP("stop"),
+    REMOVE_WORKING_DIRECTORY("removeWorkingDirectory");
+
+    private final String _name;
+
+    Phase(String name)
+    {
+      _name = name;
+    }
+
+    @Override
+    public String toString()
+    {
+      return _name;
+    }
+  }
+
+  private final Map<Phase, long[]> _totals = new EnumMap<Phase, long[]>(Phase.class);
+
+  /**
+   * Returns the start time of a phase, to be passed to
+   * {@link #end(Phase, long, String)}.
+   */
+  long begin()
+  {
+    return System.nanoTime();
+  }
+
+  /**
+   * Records a phase that started at the given time.
+   */
+  void end(Phase phase, long begin, String subject)
+  {
+    long duration = System.nanoTime() - begin;
+
+    synchronized (_totals) {
+      long[] total = _totals.get(phase);
+
+      if (total == null) {
+        total = new long[3];
+        _totals.put(phase, total);
+      }
+
+      total[0]++;
+      total[1] += duration;
+      total[2] = Math.max(total[2], duration);
+    }
+
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(String.format("Phase %s of %s took %d ms.", phase, subject, TimeUnit.NANOSECONDS.toMillis(duration)));
+    }
+  }
+
+  /**
+   * One line summary of all phases recorded so far.
+   */
+  String getSummary()
+  {
+    StringBuilder summary = new StringBuilder();
+
+    synchronized (_totals) {
+      for (Map.Entry<Phase, long[]> entry : _totals.entrySet()) {
+        if (summary.length() > 0) {
+          summary.append(", ");
+        }
+
+        summary.append(String.format("%s %d x %d ms", entry.getKey(), entry.getValue()[0], TimeUnit.NANOSECONDS.toMillis(entry.getValue()[1])));
+      }
+    }
+
+    return summary.toString();
+  }
+
+  /**
+   * Writes count, total and maximum duration of every recorded phase to the
+   * report file in properties format.
+   */
+  void writeReport(File file) throws IOException
+  {
+    File parent = file.getAbsoluteFile().getParentFile();
+
+    if (!parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Failed to create directory " + parent);
+    }
+
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+
+    try {
+      synchronized (_totals) {
+        for (Map.Entry<Phase, long[]> entry : _totals.entrySet()) {
+          long[] total = entry.getValue();
+
+          out.write(String.format("%s.count=%d%n", entry.getKey(), total[0]));
+          out.write(String.format("%s.totalMillis=%d%n", entry.getKey(), TimeUnit.NANOSECONDS.toMillis(total[1])));
+          out.write(String.format("%s.maxMillis=%d%n", entry.getKey(), TimeUnit.NANOSECONDS.toMillis(total[2])));
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
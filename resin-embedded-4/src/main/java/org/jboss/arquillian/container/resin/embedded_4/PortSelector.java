@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Picks a free HTTP port from a port range such as "8100-8199". Probing
+ * starts at a random offset so parallel JVMs using the same range rarely
+ * compete for the same port. A port can still be taken between the probe
+ * and Resin's bind, the container then retries with another port.
+ * 
+ * @version $Revision: $
+ */
+final class PortSelector {
+  private static final Random _random = new Random();
+
+  private PortSelector()
+  {
+  }
+
+  /**
+   * Parses a port range of the form "from-to", both inclusive.
+   * 
+   * @throws IllegalArgumentException if the range is malformed
+   */
+  static int[] parseRange(String range)
+  {
+    int separator = range.indexOf('-');
+
+    if (separator < 0) {
+      throw new IllegalArgumentException("Port range " + range + " is not of the form from-to.");
+    }
+
+    int from;
+    int to;
+
+    try {
+      from = Integer.parseInt(range.substring(0, separator).trim());
+      to = Integer.parseInt(range.substring(separator + 1).trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Port range " + range + " is not of the form from-to.", e);
+    }
+
+    if (from < 1 || to > 65535 || from > to) {
+      throw new IllegalArgumentException("Port range " + range + " must lie within 1-65535 and start before it ends.");
+    }
+
+    return new int[] { from, to };
+  }
+
+  /**
+   * Parses a comma separated list of ports, each within 0-65535.
+   * 
+   * @throws IllegalArgumentException if a port is malformed
+   */
+  static int[] parseList(String list)
+  {
+    String[] items = list.split(",");
+    int[] ports = new int[items.length];
+
+    for (int i = 0; i < items.length; i++) {
+      try {
+        ports[i] = Integer.parseInt(items[i].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Port list " + list + " is not a comma separated list of ports.", e);
+      }
+
+      if (ports[i] < 0 || ports[i] > 65535) {
+        throw new IllegalArgumentException("Port list " + list + " must only hold ports within 0-65535.");
+      }
+    }
+
+    return ports;
+  }
+
+  /**
+   * Returns a port from the range that is free at the time of the call.
+   * 
+   * @throws IOException if no port in the range is free
+   */
+  static int select(String range) throws IOException
+  {
+    return select(range, Collections.<Integer>emptySet());
+  }
+
+  /**
+   * Returns a port from the range that is free at the time of the call,
+   * skipping ports that were already tried.
+   * 
+   * @throws IOException if no other port in the range is free
+   */
+  static int select(String range, Set<Integer> tried) throws IOException
+  {
+    int[] bounds = parseRange(range);
+    int size = bounds[1] - bounds[0] + 1;
+    int offset;
+
+    synchronized (_random) {
+      offset = _random.nextInt(size);
+    }
+
+    for (int i = 0; i < size; i++) {
+      int port = bounds[0] + (offset + i) % size;
+
+      if (!tried.contains(port) && isFree(port)) {
+        return port;
+      }
+    }
+
+    throw new IOException("No free port in range " + range + ".");
+  }
+
+  /**
+   * Returns true if the failure, or one of its causes, is a failure to bind
+   * a port, e.g. because another process took the port after it was probed.
+   */
+  static boolean isBindFailure(Throwable failure)
+  {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause instanceof BindException) {
+        return true;
+      }
+
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean isFree(int port)
+  {
+    ServerSocket socket = null;
+
+    try {
+      socket = new ServerSocket();
+      socket.setReuseAddress(false);
+      socket.bind(new InetSocketAddress(port));
+
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      if (socket != null) {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // Ignore, the port was still probed.
+        }
+      }
+    }
+  }
+}
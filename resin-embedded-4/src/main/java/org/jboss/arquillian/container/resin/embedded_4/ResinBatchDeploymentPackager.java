@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.util.Collection;
+
+import org.jboss.arquillian.container.test.spi.client.deployment.DeploymentPackager;
+import org.jboss.arquillian.container.test.spi.client.deployment.ProtocolArchiveProcessor;
+import org.jboss.arquillian.container.test.spi.client.deployment.TestDeployment;
+import org.jboss.arquillian.protocol.servlet.v_3.ServletProtocolDeploymentPackager;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+
+/**
+ * Packages the deployment like the Servlet 3.0 protocol, which adds the test
+ * runner, and adds the {@link ResinBatchServlet} as a web fragment.
+ * 
+ * @version $Revision: $
+ */
+final class ResinBatchDeploymentPackager implements DeploymentPackager {
+  /**
+   * @see DeploymentPackager#generateDeployment(TestDeployment, Collection)
+   */
+  @Override
+  public Archive<?> generateDeployment(TestDeployment testDeployment,
+                                       Collection<ProtocolArchiveProcessor> processors)
+  {
+    Archive<?> archive = 
+      new ServletProtocolDeploymentPackager().generateDeployment(testDeployment, processors);
+
+    if (!(archive instanceof WebArchive)) {
+      throw new IllegalArgumentException(String.format("The Resin Batch protocol can only run tests in web archives, not in %s.", archive.getName()));
+    }
+
+    JavaArchive library = ShrinkWrap.create(JavaArchive.class, "arquillian-resin-batch.jar")
+      .addClass(ResinBatchServlet.class)
+      .addAsManifestResource(new StringAsset(createWebFragment()), "web-fragment.xml");
+
+    return ((WebArchive) archive).addAsLibrary(library);
+  }
+
+  private static String createWebFragment()
+  {
+    StringBuilder xml = new StringBuilder();
+
+    xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    xml.append("<web-fragment xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"3.0\">\n");
+    xml.append("  <servlet>\n");
+    xml.append("    <servlet-name>").append(ResinBatchServlet.NAME).append("</servlet-name>\n");
+    xml.append("    <servlet-class>").append(ResinBatchServlet.class.getName()).append("</servlet-class>\n");
+    xml.append("  </servlet>\n");
+    xml.append("  <servlet-mapping>\n");
+    xml.append("    <servlet-name>").append(ResinBatchServlet.NAME).append("</servlet-name>\n");
+    xml.append("    <url-pattern>").append(ResinBatchServlet.PATTERN).append("</url-pattern>\n");
+    xml.append("  </servlet-mapping>\n");
+    xml.append("</web-fragment>\n");
+
+    return xml.toString();
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.arquillian.container.test.spi.ContainerMethodExecutor;
+import org.jboss.arquillian.test.spi.TestMethodExecutor;
+import org.jboss.arquillian.test.spi.TestResult;
+
+/**
+ * Runs the first test method of a class together with as many of the class's
+ * other test methods as the batch size allows in one request to the
+ * {@link ResinBatchServlet}, and answers the following methods from the
+ * results of that request.
+ * 
+ * @version $Revision: $
+ */
+final class ResinBatchMethodExecutor implements ContainerMethodExecutor {
+  private final URL _url;
+  private final int _batchSize;
+  private final TestBatch _batch;
+
+  ResinBatchMethodExecutor(URL url, int batchSize, TestBatch batch)
+  {
+    _url = url;
+    _batchSize = batchSize;
+    _batch = batch;
+  }
+
+  /**
+   * @see ContainerMethodExecutor#invoke(TestMethodExecutor)
+   */
+  @Override
+  public TestResult invoke(TestMethodExecutor testMethodExecutor)
+  {
+    Class<?> testClass = testMethodExecutor.getInstance().getClass();
+    Method method = testMethodExecutor.getMethod();
+
+    TestResult result = _batch.take(testClass, _url, method);
+
+    if (result != null) {
+      return result;
+    }
+
+    List<Method> methods = _batch.next(method, _batchSize);
+
+    try {
+      _batch.put(methods, execute(testClass.getName(), methods));
+    } catch (IOException e) {
+      _batch.put(methods, new ArrayList<TestResult>());
+
+      return new TestResult(TestResult.Status.FAILED, e);
+    } catch (ClassNotFoundException e) {
+      _batch.put(methods, new ArrayList<TestResult>());
+
+      return new TestResult(TestResult.Status.FAILED, e);
+    }
+
+    result = _batch.take(testClass, _url, method);
+
+    if (result == null) {
+      return new TestResult(TestResult.Status.FAILED, new IOException(String.format("No result for test method %s received from %s.", method.getName(), _url)));
+    }
+
+    return result;
+  }
+
+  /**
+   * Posts the batch and reads the results, as many as arrived before the
+   * response ended.
+   */
+  private List<TestResult> execute(String className, List<Method> methods)
+    throws IOException, ClassNotFoundException
+  {
+    StringBuilder body = new StringBuilder();
+    body.append(ResinBatchServlet.CLASS_NAME).append('=').append(URLEncoder.encode(className, "UTF-8"));
+
+    for (Method method : methods) {
+      body.append('&').append(ResinBatchServlet.METHOD_NAME).append('=').append(URLEncoder.encode(method.getName(), "UTF-8"));
+    }
+
+    HttpURLConnection connection = (HttpURLConnection) _url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+
+    OutputStream out = connection.getOutputStream();
+
+    try {
+      out.write(body.toString().getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+
+    if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+      throw new IOException(String.format("Running test batch at %s failed with HTTP status %d.", _url, connection.getResponseCode()));
+    }
+
+    List<TestResult> results = new ArrayList<TestResult>();
+    ObjectInputStream in = new ObjectInputStream(connection.getInputStream());
+
+    try {
+      while (results.size() < methods.size()) {
+        results.add((TestResult) in.readObject());
+      }
+    } catch (EOFException e) {
+      // The remaining methods run again in a later batch.
+    } finally {
+      in.close();
+    }
+
+    return results;
+  }
+}
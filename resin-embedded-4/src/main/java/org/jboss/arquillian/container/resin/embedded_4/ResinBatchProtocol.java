@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.jboss.arquillian.container.spi.client.protocol.ProtocolDescription;
+import org.jboss.arquillian.container.spi.client.protocol.metadata.HTTPContext;
+import org.jboss.arquillian.container.spi.client.protocol.metadata.ProtocolMetaData;
+import org.jboss.arquillian.container.spi.client.protocol.metadata.Servlet;
+import org.jboss.arquillian.container.test.spi.ContainerMethodExecutor;
+import org.jboss.arquillian.container.test.spi.client.deployment.DeploymentPackager;
+import org.jboss.arquillian.container.test.spi.client.protocol.Protocol;
+import org.jboss.arquillian.container.test.spi.command.CommandCallback;
+
+/**
+ * Protocol running the test methods of a class in the container in batches,
+ * one HTTP request per batch, rather than one request per method. The first
+ * test method of a class that reaches the container runs the whole batch;
+ * results are reported per method as the test runner reaches them. Select it
+ * with &#064;OverProtocol("Resin Batch") or the container's defaultProtocol
+ * setting.
+ * 
+ * @version $Revision: $
+ */
+public class ResinBatchProtocol implements Protocol<ResinBatchProtocolConfiguration> {
+  public static final String NAME = "Resin Batch";
+
+  private final TestBatch _batch = new TestBatch();
+
+  /**
+   * @see Protocol#getProtocolConfigurationClass()
+   */
+  @Override
+  public Class<ResinBatchProtocolConfiguration> getProtocolConfigurationClass()
+  {
+    return ResinBatchProtocolConfiguration.class;
+  }
+
+  /**
+   * @see Protocol#getDescription()
+   */
+  @Override
+  public ProtocolDescription getDescription()
+  {
+    return new ProtocolDescription(NAME);
+  }
+
+  /**
+   * @see Protocol#getPackager()
+   */
+  @Override
+  public DeploymentPackager getPackager()
+  {
+    return new ResinBatchDeploymentPackager();
+  }
+
+  /**
+   * @see Protocol#getExecutor(org.jboss.arquillian.container.test.spi.client.protocol.ProtocolConfiguration, ProtocolMetaData, CommandCallback)
+   */
+  @Override
+  public ContainerMethodExecutor getExecutor(ResinBatchProtocolConfiguration protocolConfiguration,
+                                             ProtocolMetaData metaData,
+                                             CommandCallback callback)
+  {
+    for (HTTPContext context : metaData.getContexts(HTTPContext.class)) {
+      for (Servlet servlet : context.getServlets()) {
+        if (ResinBatchServlet.NAME.equals(servlet.getName())) {
+          return new ResinBatchMethodExecutor(getUrl(context, servlet),
+                                              protocolConfiguration.getBatchSize(),
+                                              _batch);
+        }
+      }
+    }
+
+    throw new IllegalStateException(String.format("The deployment has no %s, it was not packaged for the Resin Batch protocol.", ResinBatchServlet.NAME));
+  }
+
+  private static URL getUrl(HTTPContext context, Servlet servlet)
+  {
+    try {
+      return new URL("http", context.getHost(), context.getPort(), 
+                     servlet.getContextRoot() + ResinBatchServlet.PATTERN);
+    } catch (MalformedURLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jboss.arquillian.container.test.spi.TestRunner;
+import org.jboss.arquillian.container.test.spi.util.TestRunners;
+import org.jboss.arquillian.test.spi.TestResult;
+
+/**
+ * Runs a batch of test methods of one test class in order and streams their
+ * results back as serialized {@link TestResult}s, one per method, each
+ * written as soon as the method has run.
+ * 
+ * @version $Revision: $
+ */
+public class ResinBatchServlet extends HttpServlet {
+  private static final long serialVersionUID = 1L;
+
+  static final String NAME = "ResinBatchServlet";
+  static final String PATTERN = "/arquillian-resin-batch";
+
+  static final String CLASS_NAME = "className";
+  static final String METHOD_NAME = "methodName";
+
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response)
+    throws ServletException, IOException
+  {
+    String className = request.getParameter(CLASS_NAME);
+    String[] methodNames = request.getParameterValues(METHOD_NAME);
+
+    if (className == null || methodNames == null) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Parameters className and methodName are required.");
+      return;
+    }
+
+    response.setContentType("application/octet-stream");
+
+    ObjectOutputStream out = new ObjectOutputStream(response.getOutputStream());
+
+    try {
+      Class<?> testClass = null;
+      Throwable failure = null;
+
+      try {
+        testClass = Thread.currentThread().getContextClassLoader().loadClass(className);
+      } catch (ClassNotFoundException e) {
+        failure = e;
+      }
+
+      TestRunner runner = TestRunners.getTestRunner();
+
+      for (String methodName : methodNames) {
+        TestResult result;
+
+        if (testClass == null) {
+          result = new TestResult(TestResult.Status.FAILED, failure);
+        } else {
+          result = runner.execute(testClass, methodName);
+        }
+
+        out.writeObject(result);
+        out.flush();
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Generates a Resin configuration file (resin.xml). For the minimal profile
+ * only the features switched on in the container configuration are written,
+ * everything else is never parsed nor initialized by Resin. For the default
+ * profile Resin's built-in embedded configuration is imported. Thread and
+ * listener settings are added as server defaults.
+ * 
+ * @version $Revision: $
+ */
+final class ResinConfigurationGenerator {
+  static final String FILE_NAME = "resin-embed.xml";
+
+  // Resin's built-in configuration used by new ResinEmbed().
+  private static final String DEFAULT_CONFIGURATION = 
+    "classpath:com/caucho/resin/resin-embed.xml";
+
+  private static final String[][] MIME_MAPPINGS = {
+    { ".css", "text/css" },
+    { ".gif", "image/gif" },
+    { ".htm", "text/html" },
+    { ".html", "text/html" },
+    { ".ico", "image/x-icon" },
+    { ".jar", "application/java-archive" },
+    { ".jpeg", "image/jpeg" },
+    { ".jpg", "image/jpeg" },
+    { ".js", "application/x-javascript" },
+    { ".json", "application/json" },
+    { ".pdf", "application/pdf" },
+    { ".png", "image/png" },
+    { ".svg", "image/svg+xml" },
+    { ".txt", "text/plain" },
+    { ".xhtml", "application/xhtml+xml" },
+    { ".xml", "text/xml" },
+    { ".zip", "application/zip" },
+  };
+
+  private final ResinEmbeddedConfiguration _configuration;
+
+  ResinConfigurationGenerator(ResinEmbeddedConfiguration configuration)
+  {
+    _configuration = configuration;
+  }
+
+  /**
+   * Returns true if the container configuration needs a generated
+   * configuration rather than Resin's built-in one.
+   */
+  static boolean isRequired(ResinEmbeddedConfiguration configuration)
+  {
+    return configuration.getConfigurationFile() == null
+      && (ResinEmbeddedConfiguration.PROFILE_MINIMAL.equals(configuration.getProfile())
+          || configuration.hasServerTuning()
+          || configuration.getSharedLibraries() != null
+          || configuration.getContainerResources() != null);
+  }
+
+  /**
+   * Short description of the generated configuration, equal for equal
+   * settings.
+   */
+  String getDescription()
+  {
+    String description = isMinimal()
+      ? String.format("minimal[jsp=%s,php=%s,file=%s,mime=%s]",
+                      _configuration.isJspEnabled(),
+                      _configuration.isPhpEnabled(),
+                      _configuration.isFileServletEnabled(),
+                      _configuration.isMimeMappingsEnabled())
+      : ResinEmbeddedConfiguration.PROFILE_DEFAULT;
+
+    if (_configuration.getSharedLibraries() != null) {
+      description += "[shared-libraries]";
+    }
+
+    if (_configuration.getContainerResources() != null) {
+      description += "[resources=" + getContainerResources() + "]";
+    }
+
+    if (_configuration.hasServerTuning()) {
+      description += String.format("[thread-max=%d,keepalive-max=%d,keepalive-timeout=%d,socket-timeout=%d,accept-listen-backlog=%d]",
+                                   _configuration.getThreadMax(),
+                                   _configuration.getKeepaliveMax(),
+                                   _configuration.getKeepaliveTimeout(),
+                                   _configuration.getSocketTimeout(),
+                                   _configuration.getAcceptListenBacklog());
+    }
+
+    return description;
+  }
+
+  /**
+   * Writes the configuration into the directory and returns the file.
+   */
+  File write(File directory) throws IOException
+  {
+    File file = new File(directory, FILE_NAME);
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+    try {
+      out.write(generate());
+    } finally {
+      out.close();
+    }
+
+    return file;
+  }
+
+  String generate()
+  {
+    StringBuilder xml = new StringBuilder();
+
+    xml.append("<resin xmlns=\"http://caucho.com/ns/resin\"\n");
+    xml.append("       xmlns:resin=\"urn:java:com.caucho.resin\">\n");
+
+    if (isMinimal()) {
+      appendMinimal(xml);
+    } else {
+      // Clusters of the same id are merged, so the tuning below applies to
+      // the built-in server.
+      xml.append(String.format("  <resin:import path=\"%s\"/>\n", DEFAULT_CONFIGURATION));
+
+      if (_configuration.getSharedLibraries() != null) {
+        appendSharedLibraryLoader(xml);
+      }
+      xml.append("  <cluster id=\"\">\n");
+      appendServerDefault(xml);
+      appendContainerResources(xml);
+      xml.append("  </cluster>\n");
+    }
+
+    xml.append("</resin>\n");
+
+    return xml.toString();
+  }
+
+  private boolean isMinimal()
+  {
+    return ResinEmbeddedConfiguration.PROFILE_MINIMAL.equals(_configuration.getProfile());
+  }
+
+  /**
+   * Appends the thread and listener settings that differ from Resin's
+   * defaults.
+   */
+  private void appendServerDefault(StringBuilder xml)
+  {
+    if (!_configuration.hasServerTuning()) {
+      return;
+    }
+
+    xml.append("    <server-default>\n");
+
+    if (_configuration.getThreadMax() > 0) {
+      xml.append(String.format("      <thread-max>%d</thread-max>\n", _configuration.getThreadMax()));
+    }
+
+    if (_configuration.getKeepaliveMax() > 0) {
+      xml.append(String.format("      <keepalive-max>%d</keepalive-max>\n", _configuration.getKeepaliveMax()));
+    }
+
+    if (_configuration.getKeepaliveTimeout() > 0) {
+      xml.append(String.format("      <keepalive-timeout>%dms</keepalive-timeout>\n", _configuration.getKeepaliveTimeout()));
+    }
+
+    if (_configuration.getSocketTimeout() > 0 
+        || _configuration.getAcceptListenBacklog() > 0) {
+      xml.append("      <port-default>\n");
+
+      if (_configuration.getSocketTimeout() > 0) {
+        xml.append(String.format("        <socket-timeout>%dms</socket-timeout>\n", _configuration.getSocketTimeout()));
+      }
+
+      if (_configuration.getAcceptListenBacklog() > 0) {
+        xml.append(String.format("        <accept-listen-backlog>%d</accept-listen-backlog>\n", _configuration.getAcceptListenBacklog()));
+      }
+
+      xml.append("      </port-default>\n");
+    }
+
+    xml.append("    </server-default>\n");
+  }
+
+  /**
+   * Appends the import of the container resources, which makes them part
+   * of the cluster environment that all web applications inherit.
+   */
+  private void appendContainerResources(StringBuilder xml)
+  {
+    if (_configuration.getContainerResources() != null) {
+      xml.append(String.format("    <resin:import path=\"%s\"/>\n", getContainerResources()));
+    }
+  }
+
+  private String getContainerResources()
+  {
+    return new File(_configuration.getContainerResources()).getAbsolutePath();
+  }
+
+  /**
+   * Appends the server class loader, parent of all web application class
+   * loaders, that loads the shared libraries.
+   */
+  private void appendSharedLibraryLoader(StringBuilder xml)
+  {
+    xml.append("  <class-loader>\n");
+    xml.append(String.format("    <tree-loader path=\"${resin.root}/%s\"/>\n", SharedLibraries.DIRECTORY));
+    xml.append("  </class-loader>\n");
+  }
+
+  private void appendMinimal(StringBuilder xml)
+  {
+    if (_configuration.getSharedLibraries() != null) {
+      appendSharedLibraryLoader(xml);
+    }
+
+    xml.append("  <cluster id=\"\">\n");
+    appendServerDefault(xml);
+    appendContainerResources(xml);
+    xml.append("    <server id=\"\" port=\"-1\">\n");
+    xml.append("    </server>\n");
+    xml.append("    <web-app-default>\n");
+    xml.append("      <prologue>\n");
+    xml.append("        <class-loader>\n");
+    xml.append("          <tree-loader path=\"${resin.root}/ext-webapp-lib\"/>\n");
+    xml.append("        </class-loader>\n");
+    xml.append("      </prologue>\n");
+    xml.append("      <class-loader>\n");
+    xml.append("        <compiling-loader path=\"WEB-INF/classes\"/>\n");
+    xml.append("        <library-loader path=\"WEB-INF/lib\"/>\n");
+    xml.append("      </class-loader>\n");
+
+    if (_configuration.isFileServletEnabled()) {
+      xml.append("      <servlet servlet-name=\"resin-file\"\n");
+      xml.append("               servlet-class=\"com.caucho.servlets.FileServlet\"/>\n");
+      xml.append("      <servlet-mapping url-pattern=\"/\" servlet-name=\"resin-file\"/>\n");
+    }
+
+    if (_configuration.isJspEnabled()) {
+      xml.append("      <servlet servlet-name=\"resin-jsp\"\n");
+      xml.append("               servlet-class=\"com.caucho.jsp.JspServlet\">\n");
+      xml.append("        <init>\n");
+      xml.append("          <load-tld-on-init>false</load-tld-on-init>\n");
+      xml.append("        </init>\n");
+      xml.append("      </servlet>\n");
+      xml.append("      <servlet servlet-name=\"resin-jspx\"\n");
+      xml.append("               servlet-class=\"com.caucho.jsp.JspServlet\">\n");
+      xml.append("        <init>\n");
+      xml.append("          <load-tld-on-init>false</load-tld-on-init>\n");
+      xml.append("          <xml>true</xml>\n");
+      xml.append("        </init>\n");
+      xml.append("      </servlet>\n");
+      xml.append("      <servlet-mapping url-pattern=\"*.jsp\" servlet-name=\"resin-jsp\"/>\n");
+      xml.append("      <servlet-mapping url-pattern=\"*.jspf\" servlet-name=\"resin-jsp\"/>\n");
+      xml.append("      <servlet-mapping url-pattern=\"*.jspx\" servlet-name=\"resin-jspx\"/>\n");
+    }
+
+    if (_configuration.isPhpEnabled()) {
+      xml.append("      <servlet servlet-name=\"resin-php\"\n");
+      xml.append("               servlet-class=\"com.caucho.quercus.servlet.QuercusServlet\"/>\n");
+      xml.append("      <servlet-mapping url-pattern=\"*.php\" servlet-name=\"resin-php\"/>\n");
+    }
+
+    if (_configuration.isMimeMappingsEnabled()) {
+      for (String[] mapping : MIME_MAPPINGS) {
+        xml.append(String.format("      <mime-mapping extension=\"%s\" mime-type=\"%s\"/>\n", mapping[0], mapping[1]));
+      }
+    }
+
+    xml.append("      <resin:import path=\"WEB-INF/web.xml\" optional=\"true\"/>\n");
+    xml.append("      <resin:import path=\"WEB-INF/resin-web.xml\" optional=\"true\"/>\n");
+    xml.append("    </web-app-default>\n");
+    xml.append("    <host id=\"\">\n");
+    xml.append("    </host>\n");
+    xml.append("  </cluster>\n");
+  }
+}
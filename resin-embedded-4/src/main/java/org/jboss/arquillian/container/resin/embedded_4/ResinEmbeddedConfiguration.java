@@ -42,6 +42,8 @@
  */
 package org.jboss.arquillian.container.resin.embedded_4;
 
+import java.io.File;
+
 import org.jboss.arquillian.container.spi.ConfigurationException;
 import org.jboss.arquillian.container.spi.client.container.ContainerConfiguration;
 
@@ -52,8 +54,101 @@ import org.jboss.arquillian.container.spi.client.container.ContainerConfiguratio
  * @version $Revision: $
  */
 public class ResinEmbeddedConfiguration implements ContainerConfiguration {
+  /**
+   * Profile using Resin's built-in embedded configuration.
+   */
+  public static final String PROFILE_DEFAULT = "default";
+
+  /**
+   * Profile using a generated configuration with only the enabled features.
+   */
+  public static final String PROFILE_MINIMAL = "minimal";
+
+  /**
+   * Deployment mode writing archive contents straight into the web
+   * application directory.
+   */
+  public static final String DEPLOYMENT_MODE_EXPLODED = "exploded";
+
+  /**
+   * Deployment mode writing a zipped .war that Resin expands itself.
+   */
+  public static final String DEPLOYMENT_MODE_ARCHIVE = "archive";
+
+  /**
+   * Export compression of ShrinkWrap's ZipExporter, deflating entries one
+   * after the other.
+   */
+  public static final String EXPORT_COMPRESSION_DEFLATE = "deflate";
+
+  /**
+   * Export compression storing entries uncompressed.
+   */
+  public static final String EXPORT_COMPRESSION_STORE = "store";
+
+  /**
+   * Export compression deflating entries in parallel.
+   */
+  public static final String EXPORT_COMPRESSION_PARALLEL = "parallel";
+
+  /**
+   * Working directory root selecting a RAM-backed file system.
+   */
+  public static final String WORKING_DIRECTORY_ROOT_MEMORY = "memory";
+
+  /**
+   * Protocol running in-container tests through the Arquillian servlet.
+   */
+  public static final String PROTOCOL_SERVLET = "Servlet 3.0";
+
+  /**
+   * Protocol running in-container tests directly in the JVM.
+   */
+  public static final String PROTOCOL_LOCAL = ResinLocalProtocol.NAME;
+
+  /**
+   * Protocol running the test methods of a class in batches, one request
+   * per batch.
+   */
+  public static final String PROTOCOL_BATCH = ResinBatchProtocol.NAME;
+
   private int httpPort = 8086;
+  private String httpPortRange;
   private String configurationFile;
+  private String profile = PROFILE_DEFAULT;
+  private boolean jspEnabled = false;
+  private boolean phpEnabled = false;
+  private boolean fileServletEnabled = false;
+  private boolean mimeMappingsEnabled = false;
+  private String deploymentMode = DEPLOYMENT_MODE_ARCHIVE;
+  private int deploymentCacheSize = 0;
+  private boolean incrementalDeployment = false;
+  private boolean asyncCleanup = false;
+  private boolean reuseServer = false;
+  private int deploymentThreads = Runtime.getRuntime().availableProcessors();
+  private String compilationCacheDirectory;
+  private String timingReportFile;
+  private String workingDirectoryRoot;
+  private int warmupRequests = 0;
+  private int warmupConcurrency = 1;
+  private String warmupUrls;
+  private String additionalHttpPorts;
+  private int threadMax = 0;
+  private int keepaliveMax = 0;
+  private int keepaliveTimeout = 0;
+  private int socketTimeout = 0;
+  private int acceptListenBacklog = 0;
+  private String defaultProtocol = PROTOCOL_SERVLET;
+  private String sharedLibraries;
+  private String exportCompression = EXPORT_COMPRESSION_DEFLATE;
+  private String containerResources;
+  private int dataSourcePrefill = 0;
+  private int shutdownTimeout = 0;
+  private int webAppReuse = 0;
+  private int webAppReuseHeapLimit = 75;
+  private int logCapture = 0;
+  private String logCaptureDirectory = "target/resin-logs";
+  private int leakDetection = 0;
 
   /**
    * @see ContainerConfiguration#validate()
@@ -61,40 +156,675 @@ public class ResinEmbeddedConfiguration implements ContainerConfiguration {
   @Override
   public void validate() throws ConfigurationException
   {
-    // Nothing to validate.
+    if (httpPort < 0 || httpPort > 65535) {
+      throw new ConfigurationException("HTTP port must lie within 0-65535.");
+    }
+
+    if (httpPortRange != null) {
+      try {
+        PortSelector.parseRange(httpPortRange);
+      } catch (IllegalArgumentException e) {
+        throw new ConfigurationException(e.getMessage(), e);
+      }
+    }
+
+    if (!PROFILE_DEFAULT.equals(profile) && !PROFILE_MINIMAL.equals(profile)) {
+      throw new ConfigurationException(String.format("Unknown profile %s, expected %s or %s.", profile, PROFILE_DEFAULT, PROFILE_MINIMAL));
+    }
+
+    if (PROFILE_MINIMAL.equals(profile) && configurationFile != null) {
+      throw new ConfigurationException("The minimal profile generates its own configuration, it cannot be combined with a configuration file.");
+    }
+
+    if (!DEPLOYMENT_MODE_EXPLODED.equals(deploymentMode)
+        && !DEPLOYMENT_MODE_ARCHIVE.equals(deploymentMode)) {
+      throw new ConfigurationException(String.format("Unknown deployment mode %s, expected %s or %s.", deploymentMode, DEPLOYMENT_MODE_EXPLODED, DEPLOYMENT_MODE_ARCHIVE));
+    }
+
+    if (!PROTOCOL_SERVLET.equals(defaultProtocol)
+        && !PROTOCOL_LOCAL.equals(defaultProtocol)
+        && !PROTOCOL_BATCH.equals(defaultProtocol)) {
+      throw new ConfigurationException(String.format("Unknown default protocol %s, expected %s, %s or %s.", defaultProtocol, PROTOCOL_SERVLET, PROTOCOL_LOCAL, PROTOCOL_BATCH));
+    }
+
+    if (!EXPORT_COMPRESSION_DEFLATE.equals(exportCompression)
+        && !EXPORT_COMPRESSION_STORE.equals(exportCompression)
+        && !EXPORT_COMPRESSION_PARALLEL.equals(exportCompression)) {
+      throw new ConfigurationException(String.format("Unknown export compression %s, expected %s, %s or %s.", exportCompression, EXPORT_COMPRESSION_DEFLATE, EXPORT_COMPRESSION_STORE, EXPORT_COMPRESSION_PARALLEL));
+    }
+
+    if (deploymentThreads < 1) {
+      throw new ConfigurationException("Deployment threads must be at least 1.");
+    }
+
+    if (deploymentCacheSize < 0) {
+      throw new ConfigurationException("Deployment cache size must not be negative.");
+    }
+
+    if (warmupRequests < 0) {
+      throw new ConfigurationException("Warm-up requests must not be negative.");
+    }
+
+    if (warmupConcurrency < 1) {
+      throw new ConfigurationException("Warm-up concurrency must be at least 1.");
+    }
+
+    if (additionalHttpPorts != null) {
+      try {
+        PortSelector.parseList(additionalHttpPorts);
+      } catch (IllegalArgumentException e) {
+        throw new ConfigurationException(e.getMessage(), e);
+      }
+    }
+
+    if (threadMax < 0 || keepaliveMax < 0 || keepaliveTimeout < 0
+        || socketTimeout < 0 || acceptListenBacklog < 0) {
+      throw new ConfigurationException("Thread and listener settings must not be negative.");
+    }
+
+    if (containerResources != null) {
+      if (!new File(containerResources).isFile()) {
+        throw new ConfigurationException(String.format("Container resources %s do not exist.", containerResources));
+      }
+
+      if (configurationFile != null) {
+        throw new ConfigurationException("Container resources are imported by the generated configuration, they cannot be combined with a configuration file. Import them in the configuration file instead.");
+      }
+    }
+
+    if (leakDetection < 0) {
+      throw new ConfigurationException("Leak detection must not be negative.");
+    }
+
+    if (logCapture < 0) {
+      throw new ConfigurationException("Log capture must not be negative.");
+    }
+
+    if (webAppReuse < 0) {
+      throw new ConfigurationException("Web application reuse must not be negative.");
+    }
+
+    if (webAppReuseHeapLimit < 1 || webAppReuseHeapLimit > 100) {
+      throw new ConfigurationException("Web application reuse heap limit must be a percentage between 1 and 100.");
+    }
+
+    if (shutdownTimeout < 0) {
+      throw new ConfigurationException("Shutdown timeout must not be negative.");
+    }
+
+    if (dataSourcePrefill < 0) {
+      throw new ConfigurationException("Data source prefill must not be negative.");
+    }
+
+    if (sharedLibraries != null) {
+      for (String path : sharedLibraries.split(",")) {
+        if (path.trim().length() > 0 && !new File(path.trim()).exists()) {
+          throw new ConfigurationException(String.format("Shared library %s does not exist.", path.trim()));
+        }
+      }
+    }
+
+    if (hasServerTuning() && configurationFile != null) {
+      throw new ConfigurationException("Thread and listener settings are written into a generated configuration, they cannot be combined with a configuration file. Set them in the configuration file instead.");
+    }
   }
 
   /**
-   * HTTP port embedded Resin listens on, default 8086.
+   * HTTP port embedded Resin listens on, default 8086. Use 0 to listen on a
+   * free port chosen by the operating system.
    */
   public int getHttpPort()
   {
     return httpPort;
   }
 
-  /**
-   * HTTP port embedded Resin listens on, default 8086.
-   */
   public void setHttpPort(int httpPort)
   {
     this.httpPort = httpPort;
   }
 
   /**
-   * Location of Resin configuration file (resin.xml), a minimal internal one
-   * used by default.
+   * Range of ports such as "8100-8199" to pick a free HTTP port from,
+   * overrides the HTTP port when set.
    */
-  public String getConfigurationFile()
+  public String getHttpPortRange()
   {
-    return configurationFile;
+    return httpPortRange;
+  }
+
+  public void setHttpPortRange(String httpPortRange)
+  {
+    this.httpPortRange = httpPortRange;
   }
 
   /**
    * Location of Resin configuration file (resin.xml), a minimal internal one
    * used by default.
    */
+  public String getConfigurationFile()
+  {
+    return configurationFile;
+  }
+
   public void setConfigurationFile(String configurationFile)
   {
     this.configurationFile = configurationFile;
   }
+
+  /**
+   * Configuration profile used without a configuration file, either
+   * "default" for Resin's built-in embedded configuration or "minimal" for a
+   * generated configuration with only the features switched on below.
+   */
+  public String getProfile()
+  {
+    return profile;
+  }
+
+  public void setProfile(String profile)
+  {
+    this.profile = profile;
+  }
+
+  /**
+   * Whether the minimal profile registers the JSP and JSPX servlets, default
+   * false.
+   */
+  public boolean isJspEnabled()
+  {
+    return jspEnabled;
+  }
+
+  public void setJspEnabled(boolean jspEnabled)
+  {
+    this.jspEnabled = jspEnabled;
+  }
+
+  /**
+   * Whether the minimal profile registers the Quercus PHP servlet, default
+   * false.
+   */
+  public boolean isPhpEnabled()
+  {
+    return phpEnabled;
+  }
+
+  public void setPhpEnabled(boolean phpEnabled)
+  {
+    this.phpEnabled = phpEnabled;
+  }
+
+  /**
+   * Whether the minimal profile registers the file servlet serving static
+   * content, default false.
+   */
+  public boolean isFileServletEnabled()
+  {
+    return fileServletEnabled;
+  }
+
+  public void setFileServletEnabled(boolean fileServletEnabled)
+  {
+    this.fileServletEnabled = fileServletEnabled;
+  }
+
+  /**
+   * Whether the minimal profile registers mime mappings for common file
+   * extensions, default false.
+   */
+  public boolean isMimeMappingsEnabled()
+  {
+    return mimeMappingsEnabled;
+  }
+
+  public void setMimeMappingsEnabled(boolean mimeMappingsEnabled)
+  {
+    this.mimeMappingsEnabled = mimeMappingsEnabled;
+  }
+
+  /**
+   * How archives are handed to Resin, either "archive" (default) to write a
+   * zipped .war that Resin expands or "exploded" to write archive contents
+   * directly into the web application directory.
+   */
+  public String getDeploymentMode()
+  {
+    return deploymentMode;
+  }
+
+  public void setDeploymentMode(String deploymentMode)
+  {
+    this.deploymentMode = deploymentMode;
+  }
+
+  /**
+   * Number of exploded deployments kept for reuse by identical archives,
+   * default 0 (disabled). Only used in the exploded deployment mode.
+   */
+  public int getDeploymentCacheSize()
+  {
+    return deploymentCacheSize;
+  }
+
+  public void setDeploymentCacheSize(int deploymentCacheSize)
+  {
+    this.deploymentCacheSize = deploymentCacheSize;
+  }
+
+  /**
+   * Whether a redeployment of the same context path only writes the archive
+   * entries that changed since the previous deployment, default false. Only
+   * used in the exploded deployment mode, takes precedence over the
+   * deployment cache.
+   */
+  public boolean isIncrementalDeployment()
+  {
+    return incrementalDeployment;
+  }
+
+  public void setIncrementalDeployment(boolean incrementalDeployment)
+  {
+    this.incrementalDeployment = incrementalDeployment;
+  }
+
+  /**
+   * Whether the working directory is removed on a background thread so that
+   * stopping the container does not wait for it, default false. The JVM
+   * waits for pending removals before it exits.
+   */
+  public boolean isAsyncCleanup()
+  {
+    return asyncCleanup;
+  }
+
+  public void setAsyncCleanup(boolean asyncCleanup)
+  {
+    this.asyncCleanup = asyncCleanup;
+  }
+
+  /**
+   * Whether the Resin instance is shared JVM wide with other containers
+   * using the same configuration file and HTTP port, default false. A shared
+   * instance keeps running after the container stops and is shut down when
+   * the JVM exits.
+   */
+  public boolean isReuseServer()
+  {
+    return reuseServer;
+  }
+
+  public void setReuseServer(boolean reuseServer)
+  {
+    this.reuseServer = reuseServer;
+  }
+
+  /**
+   * Number of threads writing archive entries during deployment, default
+   * the number of processors. Use 1 to write entries on the deploying thread.
+   */
+  public int getDeploymentThreads()
+  {
+    return deploymentThreads;
+  }
+
+  public void setDeploymentThreads(int deploymentThreads)
+  {
+    this.deploymentThreads = deploymentThreads;
+  }
+
+  /**
+   * Directory keeping Resin's compiled JSPs and classes across container
+   * restarts, by default none. Output is kept per archive content, so a
+   * changed archive is always compiled afresh. Only used in the exploded
+   * deployment mode; the directory may be deleted at any time.
+   */
+  public String getCompilationCacheDirectory()
+  {
+    return compilationCacheDirectory;
+  }
+
+  public void setCompilationCacheDirectory(String compilationCacheDirectory)
+  {
+    this.compilationCacheDirectory = compilationCacheDirectory;
+  }
+
+  /**
+   * File the container writes the count, total and maximum duration of each
+   * lifecycle phase to when it stops, in properties format, by default none.
+   */
+  public String getTimingReportFile()
+  {
+    return timingReportFile;
+  }
+
+  public void setTimingReportFile(String timingReportFile)
+  {
+    this.timingReportFile = timingReportFile;
+  }
+
+  /**
+   * Returns true if any of the thread or listener settings differs from
+   * Resin's default.
+   */
+  boolean hasServerTuning()
+  {
+    return threadMax > 0 || keepaliveMax > 0 || keepaliveTimeout > 0
+      || socketTimeout > 0 || acceptListenBacklog > 0;
+  }
+
+  /**
+   * Directory the working directories of Resin and the deployments are
+   * created in, by default the current directory. Set to "memory" to use a
+   * RAM-backed file system such as /dev/shm; archives that would not fit in
+   * its free space are then written to the current directory instead.
+   */
+  public String getWorkingDirectoryRoot()
+  {
+    return workingDirectoryRoot;
+  }
+
+  public void setWorkingDirectoryRoot(String workingDirectoryRoot)
+  {
+    this.workingDirectoryRoot = workingDirectoryRoot;
+  }
+
+  /**
+   * Number of requests sent to each servlet of a deployment before it is
+   * handed to the tests, by default 0, i.e. no warm-up. Lets latency
+   * measurements see compiled code rather than class loading and the
+   * interpreter.
+   */
+  public int getWarmupRequests()
+  {
+    return warmupRequests;
+  }
+
+  public void setWarmupRequests(int warmupRequests)
+  {
+    this.warmupRequests = warmupRequests;
+  }
+
+  /**
+   * Number of warm-up requests sent in parallel to each URL, by default 1.
+   */
+  public int getWarmupConcurrency()
+  {
+    return warmupConcurrency;
+  }
+
+  public void setWarmupConcurrency(int warmupConcurrency)
+  {
+    this.warmupConcurrency = warmupConcurrency;
+  }
+
+  /**
+   * Comma separated URLs to warm up, either absolute or relative to the
+   * context path of the deployment. By default the exact and path mappings
+   * of all servlets are used.
+   */
+  public String getWarmupUrls()
+  {
+    return warmupUrls;
+  }
+
+  public void setWarmupUrls(String warmupUrls)
+  {
+    this.warmupUrls = warmupUrls;
+  }
+
+  /**
+   * Comma separated HTTP ports Resin listens on besides the HTTP port, by
+   * default none. Port 0 lets the operating system pick a free port.
+   */
+  public String getAdditionalHttpPorts()
+  {
+    return additionalHttpPorts;
+  }
+
+  public void setAdditionalHttpPorts(String additionalHttpPorts)
+  {
+    this.additionalHttpPorts = additionalHttpPorts;
+  }
+
+  /**
+   * Maximum number of Resin worker threads, by default 0 for Resin's
+   * default.
+   */
+  public int getThreadMax()
+  {
+    return threadMax;
+  }
+
+  public void setThreadMax(int threadMax)
+  {
+    this.threadMax = threadMax;
+  }
+
+  /**
+   * Maximum number of keepalive connections, by default 0 for Resin's
+   * default.
+   */
+  public int getKeepaliveMax()
+  {
+    return keepaliveMax;
+  }
+
+  public void setKeepaliveMax(int keepaliveMax)
+  {
+    this.keepaliveMax = keepaliveMax;
+  }
+
+  /**
+   * Time in milliseconds an idle keepalive connection is kept open, by
+   * default 0 for Resin's default.
+   */
+  public int getKeepaliveTimeout()
+  {
+    return keepaliveTimeout;
+  }
+
+  public void setKeepaliveTimeout(int keepaliveTimeout)
+  {
+    this.keepaliveTimeout = keepaliveTimeout;
+  }
+
+  /**
+   * Time in milliseconds a read or write on a client connection may take,
+   * by default 0 for Resin's default.
+   */
+  public int getSocketTimeout()
+  {
+    return socketTimeout;
+  }
+
+  public void setSocketTimeout(int socketTimeout)
+  {
+    this.socketTimeout = socketTimeout;
+  }
+
+  /**
+   * Length of the operating system's queue of connections waiting to be
+   * accepted, by default 0 for Resin's default.
+   */
+  public int getAcceptListenBacklog()
+  {
+    return acceptListenBacklog;
+  }
+
+  public void setAcceptListenBacklog(int acceptListenBacklog)
+  {
+    this.acceptListenBacklog = acceptListenBacklog;
+  }
+
+  /**
+   * Protocol in-container tests use unless they select one, by default
+   * "Servlet 3.0". "Resin Local" runs tests directly in this JVM within the
+   * deployed web application's environment, without any HTTP round trip.
+   * "Resin Batch" runs the test methods of a class in one request.
+   */
+  public String getDefaultProtocol()
+  {
+    return defaultProtocol;
+  }
+
+  public void setDefaultProtocol(String defaultProtocol)
+  {
+    this.defaultProtocol = defaultProtocol;
+  }
+
+  /**
+   * Comma separated JAR files and directories of JARs loaded once by Resin's
+   * server class loader and shared by all deployments, by default none.
+   * Identical JARs in a deployment's WEB-INF/lib are left out of the
+   * deployment. With a configuration file, it must declare a tree-loader
+   * for ${resin.root}/ext-lib.
+   */
+  public String getSharedLibraries()
+  {
+    return sharedLibraries;
+  }
+
+  public void setSharedLibraries(String sharedLibraries)
+  {
+    this.sharedLibraries = sharedLibraries;
+  }
+
+  /**
+   * How the archive deployment mode compresses the exported .war, by
+   * default "deflate" with ShrinkWrap's ZipExporter. "store" writes entries
+   * uncompressed, "parallel" deflates them at the fastest level on the
+   * deployment threads. The .war never leaves the machine, so "store" is
+   * usually fastest.
+   */
+  public String getExportCompression()
+  {
+    return exportCompression;
+  }
+
+  public void setExportCompression(String exportCompression)
+  {
+    this.exportCompression = exportCompression;
+  }
+
+  /**
+   * Resin configuration fragment, e.g. with &lt;database&gt; or
+   * &lt;env-entry&gt; elements, imported at cluster level, by default none.
+   * Its resources are created once when the container starts, are visible
+   * to every deployment and are closed when the container stops.
+   */
+  public String getContainerResources()
+  {
+    return containerResources;
+  }
+
+  public void setContainerResources(String containerResources)
+  {
+    this.containerResources = containerResources;
+  }
+
+  /**
+   * Number of connections opened on each database of the container
+   * resources when the first archive is deployed, so tests do not wait for
+   * connection setup, by default 0.
+   */
+  public int getDataSourcePrefill()
+  {
+    return dataSourcePrefill;
+  }
+
+  public void setDataSourcePrefill(int dataSourcePrefill)
+  {
+    this.dataSourcePrefill = dataSourcePrefill;
+  }
+
+  /**
+   * Milliseconds to wait for the remaining web applications to be removed
+   * and Resin to stop before it is destroyed forcibly, and again for that,
+   * by default 0 to wait as long as stopping takes.
+   */
+  public int getShutdownTimeout()
+  {
+    return shutdownTimeout;
+  }
+
+  public void setShutdownTimeout(int shutdownTimeout)
+  {
+    this.shutdownTimeout = shutdownTimeout;
+  }
+
+  /**
+   * Maximum number of undeployed web applications kept running, so an
+   * identical archive deployed again, e.g. by the next test class, reuses
+   * the running web application with its CDI beans, JNDI environment and
+   * initialized servlets, by default 0 to remove them on undeploy.
+   */
+  public int getWebAppReuse()
+  {
+    return webAppReuse;
+  }
+
+  public void setWebAppReuse(int webAppReuse)
+  {
+    this.webAppReuse = webAppReuse;
+  }
+
+  /**
+   * Percentage of the maximum heap above which kept web applications are
+   * removed, by default 75.
+   */
+  public int getWebAppReuseHeapLimit()
+  {
+    return webAppReuseHeapLimit;
+  }
+
+  public void setWebAppReuseHeapLimit(int webAppReuseHeapLimit)
+  {
+    this.webAppReuseHeapLimit = webAppReuseHeapLimit;
+  }
+
+  /**
+   * Number of log records of each deployment kept in memory and written to
+   * the log capture directory when a test in the deployment fails, by
+   * default 0 to capture nothing.
+   */
+  public int getLogCapture()
+  {
+    return logCapture;
+  }
+
+  public void setLogCapture(int logCapture)
+  {
+    this.logCapture = logCapture;
+  }
+
+  /**
+   * Directory the captured logs of failed tests are written to, by default
+   * target/resin-logs.
+   */
+  public String getLogCaptureDirectory()
+  {
+    return logCaptureDirectory;
+  }
+
+  public void setLogCaptureDirectory(String logCaptureDirectory)
+  {
+    this.logCaptureDirectory = logCaptureDirectory;
+  }
+
+  /**
+   * Number of garbage collections after which the class loader of a
+   * removed web application that is still reachable is reported as leaked,
+   * with the threads, thread locals and JDBC drivers suspected of holding
+   * it, by default 0 to not track class loaders. Heap and class metadata
+   * are logged after each removal as well.
+   */
+  public int getLeakDetection()
+  {
+    return leakDetection;
+  }
+
+  public void setLeakDetection(int leakDetection)
+  {
+    this.leakDetection = leakDetection;
+  }
 }
@@ -45,12 +45,31 @@ package org.jboss.arquillian.container.resin.embedded_4;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletConfig;
+import javax.servlet.ServletRegistration;
 
+import org.jboss.arquillian.container.resin.embedded_4.PhaseTimer.Phase;
 import org.jboss.arquillian.container.spi.client.container.DeployableContainer;
 import org.jboss.arquillian.container.spi.client.container.DeploymentException;
 import org.jboss.arquillian.container.spi.client.container.LifecycleException;
@@ -58,11 +77,7 @@ import org.jboss.arquillian.container.spi.client.protocol.ProtocolDescription;
 import org.jboss.arquillian.container.spi.client.protocol.metadata.HTTPContext;
 import org.jboss.arquillian.container.spi.client.protocol.metadata.ProtocolMetaData;
 import org.jboss.arquillian.container.spi.client.protocol.metadata.Servlet;
-import org.jboss.arquillian.container.spi.context.annotation.DeploymentScoped;
-import org.jboss.arquillian.core.api.InstanceProducer;
-import org.jboss.arquillian.core.api.annotation.Inject;
 import org.jboss.shrinkwrap.api.Archive;
-import org.jboss.shrinkwrap.api.exporter.ZipExporter;
 import org.jboss.shrinkwrap.descriptor.api.Descriptor;
 
 import com.caucho.resin.HttpEmbed;
@@ -83,14 +98,51 @@ public class ResinEmbeddedContainer implements
   private static final Logger log = 
     Logger.getLogger(ResinEmbeddedContainer.class.getName());
 
+  private static final String WORKING_DIRECTORY_PREFIX = "resin-work-";
+  private static final int BIND_ATTEMPTS = 5;
+
+  private enum State {
+    STOPPED, STARTING, STARTED, STOPPING
+  }
+
+  private final AtomicReference<State> _state = 
+    new AtomicReference<State>(State.STOPPED);
+
+  // Held exclusively by start() and stop() and shared by deploy() and
+  // undeploy(), which publishes the fields below to deploying threads and
+  // lets stop() wait for deployments in progress.
+  private final ReadWriteLock _lifecycleLock = new ReentrantReadWriteLock();
+
   private ResinEmbed _resin;
-  private ResinEmbeddedConfiguration _configuration;
+  private volatile ResinEmbeddedConfiguration _configuration;
 
   private File _workingDirectory;
+  private WorkingDirectoryLock _workingDirectoryLock;
+
+  // On-disk directory for deployments too large for a memory root, created
+  // on first use.
+  private File _spillDirectory;
+  private WorkingDirectoryLock _spillDirectoryLock;
+
+  // Port actually bound, may differ from the configured one.
+  private int _httpPort;
 
-  @Inject
-  @DeploymentScoped
-  private InstanceProducer<WebAppEmbed> _webApplicationProducer;
+  private String _sharedServerKey;
+
+  private PhaseTimer _timer;
+
+  private SharedLibraries _sharedLibraries;
+  private ContainerResources _containerResources;
+  private boolean _dataSourcesPrefilled;
+  private ArchiveExporter _archiveExporter;
+  private DeploymentCache _deploymentCache;
+  private CompilationCache _compilationCache;
+  private WebAppPool _webAppPool;
+  private LeakDetector _leakDetector;
+  private final DeploymentRegistry _deployments = new DeploymentRegistry();
+
+  // Writes archive entries in parallel, null when single threaded.
+  private ExecutorService _deploymentExecutor;
 
   /**
    * @see DeployableContainer#getConfigurationClass()
@@ -107,7 +159,9 @@ public class ResinEmbeddedContainer implements
   @Override
   public ProtocolDescription getDefaultProtocol()
   {
-    return new ProtocolDescription("Servlet 3.0");
+    return new ProtocolDescription(_configuration != null
+                                   ? _configuration.getDefaultProtocol()
+                                   : ResinEmbeddedConfiguration.PROTOCOL_SERVLET);
   }
 
   /**
@@ -126,29 +180,126 @@ public class ResinEmbeddedContainer implements
   public void start() 
     throws LifecycleException
   {
+    if (!_state.compareAndSet(State.STOPPED, State.STARTING)) {
+      throw new LifecycleException(String.format("Resin 4 embedded container cannot be started while it is %s.", _state.get()));
+    }
+
+    boolean started = false;
+
+    _lifecycleLock.writeLock().lock();
+
     try {
-      createWorkingDirectory();
+      startContainer();
+      started = true;
+    } finally {
+      if (!started) {
+        abortStart();
+      }
+
+      _state.set(started ? State.STARTED : State.STOPPED);
+      _lifecycleLock.writeLock().unlock();
     }
-    catch (Exception e) {
-      throw new LifecycleException("Failed to create temporary directory for Resin 4 embedded container.",e);
+  }
+
+  /**
+   * Releases what a failed start acquired, so that start() can be retried
+   * and nothing outlives the container.
+   */
+  private void abortStart()
+  {
+    if (_deploymentExecutor != null) {
+      _deploymentExecutor.shutdownNow();
+      _deploymentExecutor = null;
     }
 
-    try {
-      if (_configuration.getConfigurationFile() == null) {
-        _resin = new ResinEmbed();
-      } else {
-        _resin = new ResinEmbed(_configuration.getConfigurationFile());
+    if (_sharedServerKey != null) {
+      SharedResinRegistry.release(_sharedServerKey);
+      _sharedServerKey = null;
+    }
+
+    _deploymentCache = null;
+    _compilationCache = null;
+    _webAppPool = null;
+    _leakDetector = null;
+    _archiveExporter = null;
+    _sharedLibraries = null;
+    _containerResources = null;
+  }
+
+  private void startContainer() 
+    throws LifecycleException
+  {
+    _timer = new PhaseTimer();
+
+    if (_configuration.getSharedLibraries() != null) {
+      try {
+        _sharedLibraries = SharedLibraries.create(_configuration.getSharedLibraries());
+      } catch (IOException e) {
+        throw new LifecycleException("Failed to read shared libraries for Resin 4 embedded container.", e);
+      }
+    }
+
+    if (_configuration.getContainerResources() != null) {
+      try {
+        _containerResources = ContainerResources.create(_configuration.getContainerResources());
+      } catch (IOException e) {
+        throw new LifecycleException("Failed to read container resources for Resin 4 embedded container.", e);
       }
-        
-      _resin.setRootDirectory(_workingDirectory.getAbsolutePath());
-      _resin.addPort(new HttpEmbed(_configuration.getHttpPort()));
-  
-      log.info(String.format("Starting Resin 4 embedded container [%s] from working directory %s.",  _resin.hashCode(), _workingDirectory.getAbsolutePath()));
-      
-      _resin.start();
-    } catch (Exception e) {
-      throw new LifecycleException(String.format("Failed to start Resin 4 embedded container [%s].", _resin.hashCode()), e);
     }
+
+    _dataSourcesPrefilled = false;
+
+    if (_configuration.isReuseServer()) {
+      String sharedServerKey = SharedResinRegistry.getKey(_configuration);
+
+      SharedResinRegistry.Server server = 
+        SharedResinRegistry.acquire(sharedServerKey, new SharedResinRegistry.ServerFactory() {
+          @Override
+          public SharedResinRegistry.Server create() throws LifecycleException
+          {
+            startServer();
+
+            return new SharedResinRegistry.Server(_resin, _workingDirectory, _workingDirectoryLock, _httpPort, _configuration.getShutdownTimeout());
+          }
+        });
+
+      // Set once acquired, a failed start then releases the reference.
+      _sharedServerKey = sharedServerKey;
+      _resin = server.getResin();
+      _workingDirectory = server.getWorkingDirectory();
+      _workingDirectoryLock = server.getWorkingDirectoryLock();
+      _httpPort = server.getHttpPort();
+    } else {
+      startServer();
+    }
+
+    if (_configuration.getDeploymentCacheSize() > 0) {
+      _deploymentCache = new DeploymentCache(_configuration.getDeploymentCacheSize());
+    }
+
+    if (_configuration.getCompilationCacheDirectory() != null) {
+      _compilationCache = new CompilationCache(new File(_configuration.getCompilationCacheDirectory()));
+    }
+
+    if (_configuration.getWebAppReuse() > 0) {
+      _webAppPool = new WebAppPool(_configuration.getWebAppReuse(), _configuration.getWebAppReuseHeapLimit());
+    }
+
+    if (_configuration.getLeakDetection() > 0) {
+      _leakDetector = new LeakDetector(_configuration.getLeakDetection());
+    }
+
+    int deploymentThreads = _configuration.getDeploymentThreads();
+
+    if (deploymentThreads > 1) {
+      _deploymentExecutor = 
+        new ThreadPoolExecutor(deploymentThreads, deploymentThreads,
+                               60, TimeUnit.SECONDS,
+                               new LinkedBlockingQueue<Runnable>(),
+                               new DaemonThreadFactory("resin-embedded-deployer"));
+    }
+
+    _archiveExporter = new ArchiveExporter(_configuration.getExportCompression(), _deploymentExecutor);
   }
 
   /**
@@ -158,19 +309,116 @@ public class ResinEmbeddedContainer implements
   public void stop() 
     throws LifecycleException
   {
-    log.info(String.format("Stopping Resin 4 embedded container [%s].", _resin.hashCode()));
+    if (!_state.compareAndSet(State.STARTED, State.STOPPING)) {
+      throw new LifecycleException(String.format("Resin 4 embedded container cannot be stopped while it is %s.", _state.get()));
+    }
+
+    // Waits for deployments in progress, new ones fail.
+    _lifecycleLock.writeLock().lock();
 
     try {
-      _resin.stop();
-      _resin.destroy();
-    } catch (Exception e) {
-      throw new LifecycleException(String.format("Failed to stop Resin 4 embedded container [%s].", _resin.hashCode()), e);
+      stopContainer();
+    } finally {
+      _state.set(State.STOPPED);
+      _lifecycleLock.writeLock().unlock();
     }
-    
-    try {
-      removeWorkingDirectory();
-    } catch (IOException e) {
-      throw new LifecycleException(String.format("Failed to remove temporary directory %s for Resin 4 embedded container [%s].", _workingDirectory.getAbsolutePath(), _resin.hashCode()), e);
+  }
+
+  private void stopContainer() 
+    throws LifecycleException
+  {
+    if (_deploymentCache != null) {
+      log.info(String.format("Deployment cache of Resin 4 embedded container [%s] had %d hits and %d misses.", _resin.hashCode(), _deploymentCache.getHits(), _deploymentCache.getMisses()));
+
+      _deploymentCache.clear();
+      _deploymentCache = null;
+    }
+
+    // In its own frame, so that no local variable keeps the removed web
+    // applications reachable while leak detection finishes.
+    removeDeployments();
+
+    if (_spillDirectory != null) {
+      removeSpillDirectory();
+    }
+
+    if (_leakDetector != null) {
+      _leakDetector.finish();
+      _leakDetector = null;
+    }
+
+    log.info(String.format("Phase timings of Resin 4 embedded container [%s]: %s.", _resin.hashCode(), _timer.getSummary()));
+
+    if (_configuration.getTimingReportFile() != null) {
+      File reportFile = new File(_configuration.getTimingReportFile());
+
+      try {
+        _timer.writeReport(reportFile);
+      } catch (IOException e) {
+        throw new LifecycleException(String.format("Failed to write timing report %s for Resin 4 embedded container [%s].", reportFile.getAbsolutePath(), _resin.hashCode()), e);
+      }
+    }
+  }
+
+  /**
+   * Removes the deployed and idle web applications and stops Resin, or
+   * releases it if it is shared.
+   */
+  private void removeDeployments()
+    throws LifecycleException
+  {
+    // Removed in parallel when the server stops.
+    Collection<ResinDeployment> deployments = _deployments.getDeployments();
+
+    if (_webAppPool != null) {
+      deployments.addAll(_webAppPool.clear());
+      _webAppPool = null;
+    }
+
+    LifecycleException failure = null;
+
+    if (_sharedServerKey != null) {
+      // The shared server keeps running, so each web application of this
+      // container is removed from it.
+      for (ResinDeployment deployment : deployments) {
+        try {
+          removeWebApplication(deployment, deployment.getContextPath());
+        } catch (DeploymentException e) {
+          log.log(Level.WARNING, e.getMessage(), e.getCause());
+
+          if (failure == null) {
+            failure = new LifecycleException(e.getMessage(), e.getCause());
+          }
+        }
+      }
+    } else {
+      for (ResinDeployment deployment : deployments) {
+        closeLogCapture(deployment);
+      }
+    }
+
+    _deployments.clear();
+    _compilationCache = null;
+    _sharedLibraries = null;
+    _containerResources = null;
+    _archiveExporter = null;
+
+    if (_deploymentExecutor != null) {
+      _deploymentExecutor.shutdownNow();
+      _deploymentExecutor = null;
+    }
+
+    if (_sharedServerKey != null) {
+      int references = SharedResinRegistry.release(_sharedServerKey);
+
+      log.info(String.format("Released shared Resin 4 embedded container [%s], it keeps running for %d other containers and until the JVM exits.", _resin.hashCode(), references));
+      _sharedServerKey = null;
+    } else {
+      stopServer(deployments);
+    }
+
+    if (failure != null) {
+      throw failure;
     }
   }
 
@@ -181,35 +429,117 @@ public class ResinEmbeddedContainer implements
   public ProtocolMetaData deploy(Archive<?> archive) 
     throws DeploymentException
   {
+    // Resin needs an explicit context path.
+    String contextPath = getContextPath(archive);
+    Lock lock = _deployments.getLock(contextPath);
+    WebAppEmbed addedWebApplication = null;
+    File deploymentDirectory = null;
+    LogCapture logCapture = null;
+    boolean deployed = false;
+
+    lockStarted(archive);
+    lock.lock();
+
     try {
+      ResinDeployment existing = _deployments.get(contextPath);
+
+      if (existing != null) {
+        throw new DeploymentException(String.format("Cannot deploy web archive %s to Resin 4 embedded container [%s], context path %s is already deployed from %s.", archive.getName(), _resin.hashCode(), contextPath, existing.getDeploymentDirectory().getName()));
+      }
+
       log.info(String.format("Deploying web archive %s to Resin 4 embedded container [%s].", archive.getName(), _resin.hashCode()));
 
-      // Resin needs an explicit context path.
-      String contextPath = getContextPath(archive);
+      if (_leakDetector != null) {
+        _leakDetector.check();
+      }
 
-      // Resin needs a directory to explode .war contents to.
-      File deploymentDirectory = createDeploymentDirectory(contextPath);
+      WebAppEmbed webApplication = new WebAppEmbed();
+      webApplication.setContextPath(contextPath);
 
-      // The .war must be written out to the file system for Resin.
-      File warFile = new File(_workingDirectory, archive.getName());
-      if (warFile.exists()) {
-        warFile.delete();
+      if (_sharedLibraries != null) {
+        long phase = _timer.begin();
+        archive = _sharedLibraries.strip(archive);
+        _timer.end(Phase.STRIP_SHARED_LIBRARIES, phase, archive.getName());
       }
 
-      ZipExporter exporter = archive.as(ZipExporter.class);
-      exporter.exportTo(warFile.getAbsoluteFile());
+      boolean archiveMode = 
+        ResinEmbeddedConfiguration.DEPLOYMENT_MODE_ARCHIVE.equals(_configuration.getDeploymentMode());
+
+      // The digest is only needed by the optional caches, to check whether
+      // the archive fits on a memory root, to skip exporting an unchanged
+      // archive again and to find a running web application to reuse.
+      ArchiveDigest digest = null;
+
+      if (isMemoryRoot() || archiveMode || _webAppPool != null
+          || (!archiveMode
+              && (_configuration.isIncrementalDeployment() || _deploymentCache != null
+                  || _compilationCache != null))) {
+        long phase = _timer.begin();
+        digest = ArchiveDigest.create(archive);
+        _timer.end(Phase.DIGEST, phase, archive.getName());
+      }
+
+      if (_webAppPool != null) {
+        ResinDeployment idle = _webAppPool.take(contextPath);
+
+        if (idle != null && idle.getDigest().equals(digest.getDigest())) {
+          long phase = _timer.begin();
+          _deployments.put(idle);
+          _timer.end(Phase.REUSE_WEB_APP, phase, archive.getName());
+          deployed = true;
+
+          log.info(String.format("Reusing the running web application of identical web archive %s in Resin 4 embedded container [%s].", archive.getName(), _resin.hashCode()));
+
+          return idle.getMetaData();
+        } else if (idle != null) {
+          removeWebApplication(idle, archive.getName());
+        }
+      }
+
+      if (archiveMode) {
+        // The .war and its expanded contents are both written.
+        File root = getDeploymentRoot(archive, digest, 2);
+
+        // Resin needs a directory to explode .war contents to.
+        deploymentDirectory = createDeploymentDirectory(root, contextPath);
+
+        long phase = _timer.begin();
+        webApplication.setArchivePath(exportArchive(root, archive, digest).getAbsolutePath());
+        _timer.end(Phase.EXPORT, phase, archive.getName());
+      } else {
+        File root = getDeploymentRoot(archive, digest, 1);
+
+        long phase = _timer.begin();
+        deploymentDirectory = explodeArchive(root, archive, digest, contextPath);
+        _timer.end(Phase.EXPLODE, phase, archive.getName());
+
+        if (_compilationCache != null) {
+          CompilationCache.normalizeTimestamps(deploymentDirectory, digest);
+          webApplication.setProperty("work-dir", _compilationCache.getWorkDirectory(digest).getAbsolutePath());
+        }
+      }
 
-      WebAppEmbed webApplication = new WebAppEmbed();
       webApplication.setRootDirectory(deploymentDirectory.getAbsolutePath());
-      webApplication.setArchivePath(warFile.getAbsolutePath());
-      webApplication.setContextPath(contextPath);
 
+      if (_configuration.getLogCapture() > 0) {
+        logCapture = new LogCapture(archive.getName(), _configuration.getLogCapture(), new File(_configuration.getLogCaptureDirectory()));
+        logCapture.install();
+      }
+
+      long phase = _timer.begin();
       _resin.addWebApp(webApplication);
+      _timer.end(Phase.ADD_WEB_APP, phase, archive.getName());
+      addedWebApplication = webApplication;
+
+      if (logCapture != null) {
+        logCapture.setClassLoader(webApplication.getWebApp().getClassLoader());
+      }
 
-      _webApplicationProducer.set(webApplication);
+      prefillDataSources(archive, webApplication.getWebApp());
 
       // Creating meta-data for Arquillian.
-      HTTPContext httpContext = new HTTPContext("localhost", _configuration.getHttpPort());
+      phase = _timer.begin();
+      HTTPContext httpContext = new HTTPContext("localhost", _httpPort);
       
       WebApp deployedWebApplication = webApplication.getWebApp();
       ServletManager servletManager = deployedWebApplication.getServletMapper().getServletManager();
@@ -220,9 +550,44 @@ public class ResinEmbeddedContainer implements
         httpContext.add(new Servlet(name, servetConfiguration.getServletContext().getContextPath()));
       }
 
-      return new ProtocolMetaData().addContext(httpContext);
+      _timer.end(Phase.COLLECT_METADATA, phase, archive.getName());
+
+      if (_configuration.getWarmupRequests() > 0) {
+        phase = _timer.begin();
+        warmup(archive, deployedWebApplication);
+        _timer.end(Phase.WARMUP, phase, archive.getName());
+      }
+
+      // The web application is used by the Resin Local protocol.
+      ProtocolMetaData metaData = 
+        new ProtocolMetaData().addContext(httpContext).addContext(deployedWebApplication);
+
+      // Found by the observer that writes the logs of failed tests.
+      if (logCapture != null) {
+        metaData.addContext(logCapture);
+      }
+
+      _deployments.put(new ResinDeployment(contextPath, webApplication, deploymentDirectory,
+                                           digest != null ? digest.getDigest() : null,
+                                           metaData));
+      deployed = true;
+
+      return metaData;
+    } catch (DeploymentException e) {
+      throw e;
     } catch (Exception e) {
       throw new DeploymentException(String.format("Failed to deploy web archive %s to Resin 4 embedded container [%s].", archive.getName(), _resin.hashCode()), e);
+    } finally {
+      if (logCapture != null && !deployed) {
+        dumpLogCapture(archive, logCapture);
+      }
+
+      if (!deployed) {
+        removeFailedDeployment(archive, addedWebApplication, deploymentDirectory);
+      }
+
+      lock.unlock();
+      _lifecycleLock.readLock().unlock();
     }
   }
 
@@ -232,12 +597,167 @@ public class ResinEmbeddedContainer implements
   public void undeploy(Archive<?> archive) 
     throws DeploymentException
   {
-    log.info(String.format("Undeploying web archive %s from Resin 4 embedded container [%s].", archive.getName(), _resin.hashCode()));
+    String contextPath = getContextPath(archive);
+    Lock lock = _deployments.getLock(contextPath);
+    List<String> evicted = Collections.emptyList();
+
+    lockStarted(archive);
 
     try {
-      _resin.removeWebApp(_webApplicationProducer.get());
+      lock.lock();
+
+      try {
+        log.info(String.format("Undeploying web archive %s from Resin 4 embedded container [%s].", archive.getName(), _resin.hashCode()));
+
+        ResinDeployment deployment = _deployments.remove(contextPath);
+
+        if (deployment == null) {
+          throw new DeploymentException(String.format("Web archive %s is not deployed to Resin 4 embedded container [%s].", archive.getName(), _resin.hashCode()));
+        }
+
+        if (_webAppPool != null) {
+          // Kept running for an identical archive deployed later.
+          evicted = _webAppPool.park(deployment);
+        } else {
+          removeWebApplication(deployment, archive.getName());
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      // Each under the lock of its own context path, never nested.
+      for (String idleContextPath : evicted) {
+        evictWebApplication(idleContextPath);
+      }
+    } finally {
+      _lifecycleLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Removes an idle web application from the pool and from Resin, unless a
+   * deployment to its context path took it already.
+   */
+  private void evictWebApplication(String contextPath)
+    throws DeploymentException
+  {
+    Lock lock = _deployments.getLock(contextPath);
+
+    lock.lock();
+
+    try {
+      ResinDeployment idle = _webAppPool.take(contextPath);
+
+      if (idle != null) {
+        log.fine(String.format("Evicting idle web application %s from Resin 4 embedded container [%s].", contextPath, _resin.hashCode()));
+
+        removeWebApplication(idle, contextPath);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void removeWebApplication(ResinDeployment deployment, String name)
+    throws DeploymentException
+  {
+    closeLogCapture(deployment);
+
+    ClassLoader classLoader = deployment.getWebApplication().getWebApp().getClassLoader();
+
+    try {
+      long phase = _timer.begin();
+      _resin.removeWebApp(deployment.getWebApplication());
+      _timer.end(Phase.REMOVE_WEB_APP, phase, name);
     } catch (RuntimeException e) {
-      throw new DeploymentException(String.format("Failed to undeploy web archive %s to Resin 4 embedded container [%s].", archive.getName(), _resin.hashCode()), e);
+      throw new DeploymentException(String.format("Failed to undeploy web archive %s to Resin 4 embedded container [%s].", name, _resin.hashCode()), e);
+    }
+
+    if (_leakDetector != null) {
+      _leakDetector.track(name, classLoader);
+    }
+
+    if (_deploymentCache != null) {
+      _deploymentCache.release(deployment.getDeploymentDirectory());
+    }
+  }
+
+  /**
+   * Writes the logs captured during a failed deployment to a file.
+   */
+  /**
+   * Removes the web application and deployment directory of a failed
+   * deployment, so that the context path can be deployed again.
+   */
+  private void removeFailedDeployment(Archive<?> archive, 
+                                      WebAppEmbed webApplication,
+                                      File deploymentDirectory)
+  {
+    if (webApplication != null) {
+      try {
+        _resin.removeWebApp(webApplication);
+      } catch (RuntimeException e) {
+        log.log(Level.WARNING, String.format("Failed to remove web application of failed web archive %s from Resin 4 embedded container [%s].", archive.getName(), _resin.hashCode()), e);
+      }
+    }
+
+    if (deploymentDirectory == null) {
+      return;
+    }
+
+    // The directory may hold a partial copy, it must not be reused.
+    if (_deploymentCache != null) {
+      _deploymentCache.remove(deploymentDirectory);
+    }
+
+    try {
+      DirectoryCleaner.delete(deploymentDirectory);
+    } catch (IOException e) {
+      log.log(Level.WARNING, String.format("Failed to remove deployment directory %s of failed web archive %s.", deploymentDirectory, archive.getName()), e);
+    }
+  }
+
+  private void dumpLogCapture(Archive<?> archive, LogCapture logCapture)
+  {
+    logCapture.uninstall();
+
+    try {
+      File file = logCapture.dump("deploy");
+
+      log.info(String.format("Deployment of web archive %s failed, wrote captured Resin logs to %s.", archive.getName(), file.getAbsolutePath()));
+    } catch (IOException e) {
+      log.log(Level.WARNING, String.format("Failed to write captured Resin logs of web archive %s.", archive.getName()), e);
+    }
+  }
+
+  private static void closeLogCapture(ResinDeployment deployment)
+  {
+    if (deployment.getMetaData() == null) {
+      return;
+    }
+
+    for (LogCapture logCapture : deployment.getMetaData().getContexts(LogCapture.class)) {
+      logCapture.uninstall();
+
+      log.info(logCapture.getSummary() + ".");
+    }
+  }
+
+  /**
+   * Acquires the shared lifecycle lock, failing unless the container is
+   * started. The caller releases it.
+   */
+  private void lockStarted(Archive<?> archive)
+    throws DeploymentException
+  {
+    _lifecycleLock.readLock().lock();
+
+    State state = _state.get();
+
+    if (state != State.STARTED) {
+      _lifecycleLock.readLock().unlock();
+
+      throw new DeploymentException(String.format("Cannot deploy or undeploy web archive %s, Resin 4 embedded container is %s.", archive.getName(), state));
     }
   }
 
@@ -259,46 +779,461 @@ public class ResinEmbeddedContainer implements
     throw new UnsupportedOperationException("Resin does not support resource files. Please use resin.xml, web.xml, resin-web.xml, beans.xml or resin-beans.xml to deploy resources.");
   }
 
-  private void createWorkingDirectory() throws IOException
+  /**
+   * Writes the archive contents into a deployment directory, reusing a
+   * cached directory of an identical archive when there is one.
+   */
+  private File explodeArchive(File root, Archive<?> archive, 
+                              ArchiveDigest digest, String contextPath)
+    throws IOException
   {
-    _workingDirectory = new File("resin-work-" + UUID.randomUUID().toString()); //File.createTempFile("arquillian", "resin");
+    if (_configuration.isIncrementalDeployment()) {
+      return synchronizeArchive(root, archive, digest, contextPath);
+    }
 
-    _workingDirectory.delete();
-    _workingDirectory.mkdirs();
+    if (_deploymentCache == null) {
+      File deploymentDirectory = createDeploymentDirectory(root, contextPath);
+      ArchiveExploder.explode(archive, deploymentDirectory, _deploymentExecutor);
+
+      return deploymentDirectory;
+    }
+
+    File deploymentDirectory = _deploymentCache.acquire(digest.getDigest());
+
+    if (deploymentDirectory != null) {
+      log.fine(String.format("Reusing cached deployment directory %s for web archive %s.", deploymentDirectory, archive.getName()));
+
+      return deploymentDirectory;
+    }
+
+    deploymentDirectory = createDeploymentDirectory(root, contextPath);
+    ArchiveExploder.explode(archive, deploymentDirectory, _deploymentExecutor);
+
+    _deploymentCache.put(digest.getDigest(), deploymentDirectory);
+
+    return deploymentDirectory;
+  }
+
+  /**
+   * Updates the context path's stable deployment directory to match the
+   * archive, writing only the entries that changed since the last deployment.
+   */
+  private File synchronizeArchive(File root, Archive<?> archive, 
+                                  ArchiveDigest digest, String contextPath)
+    throws IOException
+  {
+    String name = contextPath.substring(1);
+    File deploymentDirectory = new File(root, name + ".incremental");
+    File manifestFile = new File(root, name + ".manifest");
+
+    deploymentDirectory.mkdirs();
+
+    DeploymentSynchronizer.synchronize(archive, digest,
+                                       deploymentDirectory, manifestFile,
+                                       _deploymentExecutor);
+
+    return deploymentDirectory;
+  }
+
+  /**
+   * Writes the archive out as a .war for Resin to expand, unless it is
+   * unchanged since the last export.
+   */
+  private File exportArchive(File root, Archive<?> archive, ArchiveDigest digest)
+    throws IOException
+  {
+    // The .war must be written out to the file system for Resin.
+    File warFile = new File(root, archive.getName());
+
+    _archiveExporter.export(archive, digest, warFile);
+
+    return warFile;
+  }
+
+  /**
+   * Opens the configured number of connections on the container's
+   * databases once, looked up through the first deployed web application.
+   */
+  private void prefillDataSources(Archive<?> archive, WebApp webApplication)
+  {
+    if (_containerResources == null || _configuration.getDataSourcePrefill() == 0) {
+      return;
+    }
+
+    synchronized (this) {
+      if (_dataSourcesPrefilled) {
+        return;
+      }
+
+      _dataSourcesPrefilled = true;
+    }
+
+    long phase = _timer.begin();
+    _containerResources.prefill(webApplication.getClassLoader(), _configuration.getDataSourcePrefill());
+    _timer.end(Phase.PREFILL_DATA_SOURCES, phase, archive.getName());
+  }
+
+  /**
+   * Sends the configured number of requests to the configured URLs or else
+   * to all servlet mappings of the web application, and logs how long each
+   * took to reach steady latency.
+   */
+  private void warmup(Archive<?> archive, WebApp webApplication)
+    throws IOException, InterruptedException
+  {
+    String base = String.format("http://localhost:%d%s", _httpPort, webApplication.getContextPath());
+    List<URL> urls;
+
+    if (_configuration.getWarmupUrls() != null) {
+      urls = WarmupDriver.parseUrls(base, _configuration.getWarmupUrls());
+    } else {
+      List<String> urlPatterns = new ArrayList<String>();
+
+      for (ServletRegistration registration : webApplication.getServletRegistrations().values()) {
+        urlPatterns.addAll(registration.getMappings());
+      }
+
+      urls = new ArrayList<URL>();
+
+      for (String path : WarmupDriver.getPaths(urlPatterns)) {
+        urls.add(new URL(base + path));
+      }
+    }
+
+    WarmupDriver driver = 
+      new WarmupDriver(_configuration.getWarmupRequests(), _configuration.getWarmupConcurrency());
+
+    for (WarmupDriver.Result result : driver.warmup(urls)) {
+      log.info(String.format("Warmed up %s of web archive %s in Resin 4 embedded container [%s]: %d of %d requests failed, first took %d us, steady state of %d us reached after %d ms.", result.getUrl(), archive.getName(), _resin.hashCode(), result.getFailures(), _configuration.getWarmupRequests(), result.getFirstLatency(TimeUnit.MICROSECONDS), result.getSteadyLatency(TimeUnit.MICROSECONDS), result.getTimeToSteadyState(TimeUnit.MILLISECONDS)));
+    }
+  }
+
+  /**
+   * Returns the directory to write the archive's deployment to: the working
+   * directory, or the spill directory on disk if the working directory is on
+   * a memory root without enough free space for the given multiple of the
+   * archive size.
+   */
+  private File getDeploymentRoot(Archive<?> archive, ArchiveDigest digest,
+                                 int copies)
+    throws IOException
+  {
+    if (!isMemoryRoot()) {
+      return _workingDirectory;
+    }
+
+    long size = digest.getSize() * copies;
+
+    if (WorkingDirectoryRoot.fits(_workingDirectory, size)) {
+      return _workingDirectory;
+    }
+
+    synchronized (this) {
+      if (_spillDirectory == null) {
+        File diskRoot = WorkingDirectoryRoot.getDiskRoot();
+
+        _spillDirectory = new File(diskRoot, WORKING_DIRECTORY_PREFIX + UUID.randomUUID());
+        _spillDirectory.mkdirs();
+        _spillDirectoryLock = WorkingDirectoryLock.acquire(_spillDirectory);
+
+        if (_spillDirectoryLock == null) {
+          File spillDirectory = _spillDirectory;
+
+          _spillDirectory = null;
+
+          throw new IOException(String.format("Temporary directory %s is locked by another container.", spillDirectory.getAbsolutePath()));
+        }
+
+        DirectoryCleaner.sweepInBackground(diskRoot, WORKING_DIRECTORY_PREFIX);
+      }
+    }
+
+    log.info(String.format("Web archive %s needs %d KB but working directory %s has %d KB free, deploying it to %s.", archive.getName(), size / 1024, _workingDirectory, _workingDirectory.getUsableSpace() / 1024, _spillDirectory));
+
+    return _spillDirectory;
+  }
+
+  private boolean isMemoryRoot()
+  {
+    return ResinEmbeddedConfiguration.WORKING_DIRECTORY_ROOT_MEMORY.equals(_configuration.getWorkingDirectoryRoot());
+  }
+
+  /**
+   * Removes the spill directory of deployments that did not fit on the
+   * memory root.
+   */
+  private void removeSpillDirectory()
+    throws LifecycleException
+  {
+    try {
+      _spillDirectoryLock.release();
+
+      if (_configuration.isAsyncCleanup()) {
+        DirectoryCleaner.deleteInBackground(_spillDirectory);
+      } else {
+        DirectoryCleaner.delete(_spillDirectory);
+      }
+    } catch (IOException e) {
+      throw new LifecycleException(String.format("Failed to remove temporary directory %s for Resin 4 embedded container [%s].", _spillDirectory.getAbsolutePath(), _resin.hashCode()), e);
+    } finally {
+      _spillDirectory = null;
+      _spillDirectoryLock = null;
+    }
   }
 
-  private void removeWorkingDirectory() throws IOException
+  /**
+   * Creates the working directory and starts a new Resin instance in it.
+   */
+  private void startServer() 
+    throws LifecycleException
   {
-    deleteFile(_workingDirectory);
+    try {
+      long phase = _timer.begin();
+      createWorkingDirectory();
+      _timer.end(Phase.CREATE_WORKING_DIRECTORY, phase, _workingDirectory.getName());
+    }
+    catch (Exception e) {
+      throw new LifecycleException("Failed to create temporary directory for Resin 4 embedded container.",e);
+    }
+
+    DirectoryCleaner.sweepInBackground(_workingDirectory.getAbsoluteFile().getParentFile(), WORKING_DIRECTORY_PREFIX);
+
+    boolean started = false;
+
+    try {
+      if (_sharedLibraries != null) {
+        try {
+          _sharedLibraries.install(_workingDirectory);
+        } catch (IOException e) {
+          throw new LifecycleException(String.format("Failed to install shared libraries into working directory %s.", _workingDirectory.getAbsolutePath()), e);
+        }
+
+        log.fine(String.format("Installed shared libraries %s.", _sharedLibraries.getFiles()));
+      }
+
+      long startTime = System.currentTimeMillis();
+      long startMemory = getUsedMemory();
+
+      try {
+        String portRange = _configuration.getHttpPortRange();
+        Set<Integer> triedPorts = new HashSet<Integer>();
+
+        for (int attempt = 1; ; attempt++) {
+          int port = portRange != null
+            ? PortSelector.select(portRange, triedPorts)
+            : _configuration.getHttpPort();
+
+          try {
+            startResin(port);
+            break;
+          } catch (Exception e) {
+            // Another process may take a probed port before Resin binds it.
+            if (portRange == null || attempt == BIND_ATTEMPTS || !PortSelector.isBindFailure(e)) {
+              throw e;
+            }
+
+            log.info(String.format("HTTP port %d of range %s was taken before Resin 4 embedded container [%s] could bind it, retrying with another port.", port, portRange, _resin.hashCode()));
+
+            triedPorts.add(port);
+            destroyQuietly(_resin);
+          }
+        }
+
+        log.info(String.format("Resin 4 embedded container [%s] listens on HTTP port %d, started in %d ms using about %d KB of heap.", _resin.hashCode(), _httpPort, System.currentTimeMillis() - startTime, (getUsedMemory() - startMemory) / 1024));
+      } catch (Exception e) {
+        throw new LifecycleException(String.format("Failed to start Resin 4 embedded container [%s].", _resin != null ? _resin.hashCode() : 0), e);
+      }
+
+      started = true;
+    } finally {
+      if (!started) {
+        removeFailedServer();
+      }
+    }
   }
 
-  private static void deleteFile(File file) throws IOException
+  /**
+   * Creates and starts Resin listening on the given HTTP port and the
+   * additional ports.
+   */
+  private void startResin(int port) throws Exception
   {
-    if (file.isDirectory()) {
-      deleteDirectory(file);
+    long phase = _timer.begin();
+
+    if (_configuration.getConfigurationFile() != null) {
+      _resin = new ResinEmbed(_configuration.getConfigurationFile());
+    } else if (ResinConfigurationGenerator.isRequired(_configuration)) {
+      ResinConfigurationGenerator generator = new ResinConfigurationGenerator(_configuration);
+      File configurationFile = generator.write(_workingDirectory);
+
+      log.fine(String.format("Generated %s configuration %s.", generator.getDescription(), configurationFile));
+
+      _resin = new ResinEmbed(configurationFile.getAbsolutePath());
+    } else {
+      _resin = new ResinEmbed();
     }
+      
+    _resin.setRootDirectory(_workingDirectory.getAbsolutePath());
+
+    HttpEmbed http = new HttpEmbed(port);
+    _resin.addPort(http);
+
+    List<HttpEmbed> additionalPorts = new ArrayList<HttpEmbed>();
+
+    if (_configuration.getAdditionalHttpPorts() != null) {
+      for (int additionalPort : PortSelector.parseList(_configuration.getAdditionalHttpPorts())) {
+        HttpEmbed additionalHttp = new HttpEmbed(additionalPort);
+        _resin.addPort(additionalHttp);
+        additionalPorts.add(additionalHttp);
+      }
+    }
+
+    _timer.end(Phase.CONSTRUCT, phase, _workingDirectory.getName());
+
+    log.info(String.format("Starting Resin 4 embedded container [%s] from working directory %s.",  _resin.hashCode(), _workingDirectory.getAbsolutePath()));
+    
+    phase = _timer.begin();
+    _resin.start();
+    _timer.end(Phase.START, phase, _workingDirectory.getName());
+
+    // With port 0 the operating system picks the port on bind.
+    _httpPort = port == 0 ? http.getLocalPort() : port;
 
-    if (file.delete() == false) {
-      throw new IOException("Failed to delete " + file);
+    for (HttpEmbed additionalHttp : additionalPorts) {
+      log.info(String.format("Resin 4 embedded container [%s] also listens on HTTP port %d.", _resin.hashCode(), additionalHttp.getLocalPort()));
     }
   }
 
-  private static void deleteDirectory(File directory) throws IOException
+  /**
+   * Destroys the Resin instance that failed to start and removes its working
+   * directory, logging any failure since the start failure is reported.
+   */
+  private void removeFailedServer()
   {
-    File[] files = directory.listFiles();
+    if (_resin != null) {
+      destroyQuietly(_resin);
+    }
 
-    if (files == null) {
-      throw new IOException("Error listing files for " + directory);
+    try {
+      _workingDirectoryLock.release();
+      DirectoryCleaner.delete(_workingDirectory);
+    } catch (IOException e) {
+      log.log(Level.WARNING, String.format("Failed to remove temporary directory %s of Resin 4 embedded container.", _workingDirectory.getAbsolutePath()), e);
     }
 
-    for (File file : files) {
-      deleteFile(file);
+    _resin = null;
+    _workingDirectory = null;
+    _workingDirectoryLock = null;
+  }
+
+  /**
+   * Destroys a Resin instance that failed to start, logging any failure.
+   */
+  private static void destroyQuietly(ResinEmbed resin)
+  {
+    try {
+      resin.destroy();
+    } catch (Exception e) {
+      log.log(Level.FINE, String.format("Failed to destroy Resin 4 embedded container [%s].", resin.hashCode()), e);
+    }
+  }
+
+  /**
+   * Stops the Resin instance and removes its working directory.
+   */
+  private void stopServer(Collection<ResinDeployment> deployments) 
+    throws LifecycleException
+  {
+    log.info(String.format("Stopping Resin 4 embedded container [%s].", _resin.hashCode()));
+
+    LifecycleException failure = null;
+    Map<String, ClassLoader> classLoaders = new LinkedHashMap<String, ClassLoader>();
+
+    if (_leakDetector != null) {
+      for (ResinDeployment deployment : deployments) {
+        classLoaders.put(deployment.getContextPath(), deployment.getWebApplication().getWebApp().getClassLoader());
+      }
+    }
+
+    try {
+      List<WebAppEmbed> webApplications = new ArrayList<WebAppEmbed>();
+
+      for (ResinDeployment deployment : deployments) {
+        webApplications.add(deployment.getWebApplication());
+      }
+
+      ResinShutdown shutdown = new ResinShutdown(_resin, _configuration.getShutdownTimeout());
+
+      long phase = _timer.begin();
+      boolean graceful = shutdown.run(webApplications);
+      _timer.end(Phase.STOP, phase, _workingDirectory.getName());
+
+      log.info(String.format("Stopped Resin 4 embedded container [%s]%s: %s.", _resin.hashCode(), graceful ? "" : " forcibly", shutdown.getSummary()));
+    } catch (Exception e) {
+      failure = new LifecycleException(String.format("Failed to stop Resin 4 embedded container [%s].", _resin.hashCode()), e);
+    }
+
+    // Resin is destroyed either way, so these are due for collection too.
+    if (_leakDetector != null) {
+      for (Map.Entry<String, ClassLoader> classLoader : classLoaders.entrySet()) {
+        _leakDetector.track(classLoader.getKey(), classLoader.getValue());
+      }
+
+      classLoaders.clear();
     }
+
+    // Resin is destroyed even if stopping it failed, so the working
+    // directory is no longer in use.
+    try {
+      _workingDirectoryLock.release();
+
+      if (_configuration.isAsyncCleanup()) {
+        DirectoryCleaner.deleteInBackground(_workingDirectory);
+      } else {
+        long phase = _timer.begin();
+        DirectoryCleaner.delete(_workingDirectory);
+        _timer.end(Phase.REMOVE_WORKING_DIRECTORY, phase, _workingDirectory.getName());
+      }
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = new LifecycleException(String.format("Failed to remove temporary directory %s for Resin 4 embedded container [%s].", _workingDirectory.getAbsolutePath(), _resin.hashCode()), e);
+      } else {
+        log.log(Level.WARNING, String.format("Failed to remove temporary directory %s for Resin 4 embedded container [%s].", _workingDirectory.getAbsolutePath(), _resin.hashCode()), e);
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void createWorkingDirectory() throws IOException
+  {
+    File root = WorkingDirectoryRoot.resolve(_configuration.getWorkingDirectoryRoot());
+
+    _workingDirectory = new File(root, WORKING_DIRECTORY_PREFIX + UUID.randomUUID().toString()); //File.createTempFile("arquillian", "resin");
+
+    _workingDirectory.delete();
+    _workingDirectory.mkdirs();
+
+    // Marks the directory as in use for sweeps started by other containers.
+    _workingDirectoryLock = WorkingDirectoryLock.acquire(_workingDirectory);
+
+    if (_workingDirectoryLock == null) {
+      throw new IOException(String.format("Working directory %s is locked by another container.", _workingDirectory.getAbsolutePath()));
+    }
+  }
+
+  private static long getUsedMemory()
+  {
+    Runtime runtime = Runtime.getRuntime();
+
+    return runtime.totalMemory() - runtime.freeMemory();
   }
 
-  private File createDeploymentDirectory(String contextPath)
+  private File createDeploymentDirectory(File root, String contextPath)
   {
-    File deploymentDirectory = new File(_workingDirectory,
+    File deploymentDirectory = new File(root,
                                         String.format("%s.%s", 
                                                       contextPath.substring(1),
                                                       UUID.randomUUID()));
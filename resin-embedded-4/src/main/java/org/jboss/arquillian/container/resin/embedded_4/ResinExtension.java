@@ -18,7 +18,9 @@
 package org.jboss.arquillian.container.resin.embedded_4;
 
 import org.jboss.arquillian.container.spi.client.container.DeployableContainer;
+import org.jboss.arquillian.container.test.spi.client.protocol.Protocol;
 import org.jboss.arquillian.core.spi.LoadableExtension;
+import org.jboss.arquillian.test.spi.TestEnricher;
 
 /**
  * Embedded Resin 4 extension for Arquillian.
@@ -35,5 +37,9 @@ public class ResinExtension implements LoadableExtension {
   public void register(ExtensionBuilder builder)
   {
     builder.service(DeployableContainer.class, ResinEmbeddedContainer.class);
+    builder.service(TestEnricher.class, LoadGeneratorTestEnricher.class);
+    builder.service(Protocol.class, ResinLocalProtocol.class);
+    builder.service(Protocol.class, ResinBatchProtocol.class);
+    builder.observer(LogCaptureObserver.class);
   }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.InjectionTarget;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.jboss.arquillian.container.test.spi.ContainerMethodExecutor;
+import org.jboss.arquillian.test.spi.TestEnricher;
+import org.jboss.arquillian.test.spi.TestMethodExecutor;
+import org.jboss.arquillian.test.spi.TestResult;
+
+import com.caucho.server.webapp.WebApp;
+
+/**
+ * Invokes test methods on the calling thread with the web application's
+ * class loader as context class loader. Resin binds JNDI and CDI to that
+ * class loader, so the test sees the web application's java:comp namespace
+ * and beans. The test instance is injected through the web application's
+ * BeanManager before the method runs.
+ * 
+ * @version $Revision: $
+ */
+final class ResinLocalMethodExecutor implements ContainerMethodExecutor {
+  private static final Logger log = 
+    Logger.getLogger(ResinLocalMethodExecutor.class.getName());
+
+  private static final String BEAN_MANAGER = "java:comp/BeanManager";
+
+  private final WebApp _webApplication;
+  private final Collection<TestEnricher> _enrichers;
+
+  ResinLocalMethodExecutor(WebApp webApplication, 
+                           Collection<TestEnricher> enrichers)
+  {
+    _webApplication = webApplication;
+    _enrichers = enrichers;
+  }
+
+  /**
+   * @see ContainerMethodExecutor#invoke(TestMethodExecutor)
+   */
+  @Override
+  public TestResult invoke(TestMethodExecutor testMethodExecutor)
+  {
+    TestResult result = new TestResult();
+    result.setStart(System.currentTimeMillis());
+
+    Thread thread = Thread.currentThread();
+    ClassLoader oldClassLoader = thread.getContextClassLoader();
+    CreationalContext<Object> creationalContext = null;
+
+    thread.setContextClassLoader(_webApplication.getClassLoader());
+
+    try {
+      BeanManager beanManager = lookupBeanManager();
+
+      if (beanManager != null) {
+        creationalContext = beanManager.createCreationalContext(null);
+        inject(testMethodExecutor.getInstance(), beanManager, creationalContext);
+      }
+
+      Object[] parameters = resolve(testMethodExecutor.getMethod(), beanManager, creationalContext);
+
+      testMethodExecutor.invoke(parameters);
+
+      result.setStatus(TestResult.Status.PASSED);
+    } catch (Throwable e) {
+      result.setStatus(TestResult.Status.FAILED);
+      result.setThrowable(e);
+    } finally {
+      if (creationalContext != null) {
+        creationalContext.release();
+      }
+
+      thread.setContextClassLoader(oldClassLoader);
+      result.setEnd(System.currentTimeMillis());
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the web application's BeanManager, or null if CDI is not
+   * available.
+   */
+  private static BeanManager lookupBeanManager()
+  {
+    try {
+      return (BeanManager) new InitialContext().lookup(BEAN_MANAGER);
+    } catch (NamingException e) {
+      log.log(Level.FINEST, "No BeanManager bound, skipping CDI injection.", e);
+
+      return null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void inject(Object instance, BeanManager beanManager,
+                             CreationalContext<Object> creationalContext)
+  {
+    InjectionTarget<Object> injectionTarget = (InjectionTarget<Object>) 
+      beanManager.createInjectionTarget(beanManager.createAnnotatedType(instance.getClass()));
+
+    injectionTarget.inject(instance, creationalContext);
+  }
+
+  /**
+   * Resolves the test method parameters with the client side test enrichers
+   * and then with CDI, parameters resolved by neither are null.
+   */
+  private Object[] resolve(Method method, BeanManager beanManager,
+                           CreationalContext<Object> creationalContext)
+  {
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    Object[] parameters = new Object[parameterTypes.length];
+
+    for (TestEnricher enricher : _enrichers) {
+      Object[] values = enricher.resolve(method);
+
+      for (int i = 0; i < parameters.length; i++) {
+        if (parameters[i] == null && values != null && i < values.length) {
+          parameters[i] = values[i];
+        }
+      }
+    }
+
+    if (beanManager != null) {
+      for (int i = 0; i < parameters.length; i++) {
+        if (parameters[i] == null) {
+          Set<Bean<?>> beans = beanManager.getBeans(parameterTypes[i]);
+          Bean<?> bean = beanManager.resolve(beans);
+
+          if (bean != null) {
+            parameters[i] = beanManager.getReference(bean, parameterTypes[i], creationalContext);
+          }
+        }
+      }
+    }
+
+    return parameters;
+  }
+}
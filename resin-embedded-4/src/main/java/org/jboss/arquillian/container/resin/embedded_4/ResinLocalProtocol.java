@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import org.jboss.arquillian.container.spi.client.protocol.ProtocolDescription;
+import org.jboss.arquillian.container.spi.client.protocol.metadata.ProtocolMetaData;
+import org.jboss.arquillian.container.test.spi.ContainerMethodExecutor;
+import org.jboss.arquillian.container.test.spi.client.deployment.DeploymentPackager;
+import org.jboss.arquillian.container.test.spi.client.protocol.Protocol;
+import org.jboss.arquillian.container.test.spi.command.CommandCallback;
+import org.jboss.arquillian.core.api.Instance;
+import org.jboss.arquillian.core.api.annotation.Inject;
+import org.jboss.arquillian.core.spi.ServiceLoader;
+import org.jboss.arquillian.test.spi.TestEnricher;
+
+import com.caucho.server.webapp.WebApp;
+
+/**
+ * Protocol running in-container tests directly in the JVM of the embedded
+ * Resin instance, in the environment of the deployed web application, with
+ * no HTTP round trip, serialization or servlet dispatch. Select it with
+ * &#064;OverProtocol("Resin Local") or the container's defaultProtocol
+ * setting.
+ * 
+ * @version $Revision: $
+ */
+public class ResinLocalProtocol implements Protocol<ResinLocalProtocolConfiguration> {
+  public static final String NAME = "Resin Local";
+
+  @Inject
+  private Instance<ServiceLoader> _serviceLoader;
+
+  /**
+   * @see Protocol#getProtocolConfigurationClass()
+   */
+  @Override
+  public Class<ResinLocalProtocolConfiguration> getProtocolConfigurationClass()
+  {
+    return ResinLocalProtocolConfiguration.class;
+  }
+
+  /**
+   * @see Protocol#getDescription()
+   */
+  @Override
+  public ProtocolDescription getDescription()
+  {
+    return new ProtocolDescription(NAME);
+  }
+
+  /**
+   * @see Protocol#getPackager()
+   */
+  @Override
+  public DeploymentPackager getPackager()
+  {
+    return new ResinLocalDeploymentPackager();
+  }
+
+  /**
+   * @see Protocol#getExecutor(org.jboss.arquillian.container.test.spi.client.protocol.ProtocolConfiguration, ProtocolMetaData, CommandCallback)
+   */
+  @Override
+  public ContainerMethodExecutor getExecutor(ResinLocalProtocolConfiguration protocolConfiguration,
+                                             ProtocolMetaData metaData,
+                                             CommandCallback callback)
+  {
+    if (!metaData.hasContext(WebApp.class)) {
+      throw new IllegalStateException("The Resin Local protocol can only run tests deployed to a Resin 4 embedded container.");
+    }
+
+    WebApp webApplication = metaData.getContexts(WebApp.class).iterator().next();
+
+    return new ResinLocalMethodExecutor(webApplication, _serviceLoader.get().all(TestEnricher.class));
+  }
+}
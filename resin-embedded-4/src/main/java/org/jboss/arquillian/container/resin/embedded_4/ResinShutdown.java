@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import com.caucho.resin.ResinEmbed;
+import com.caucho.resin.WebAppEmbed;
+
+/**
+ * Stops a Resin server in bounded steps. The remaining web applications are
+ * removed in parallel, then Resin is stopped, which closes its listeners,
+ * both within the shutdown timeout. If that deadline passes or a step fails,
+ * Resin is destroyed right away, again within the timeout, and a step that
+ * still hangs is left behind on its daemon thread. The first failure is
+ * rethrown once Resin is destroyed. The time of every step is recorded, and
+ * the stack of a step that timed out is logged.
+ * <p>
+ * The listeners cannot be closed while the web applications are removed:
+ * ResinEmbed closes its ports only in stop(), which also stops the web
+ * applications, and running it alongside removeWebApp() races Resin's own
+ * removal of the same web applications.
+ * 
+ * @version $Revision: $
+ */
+final class ResinShutdown {
+  private static final Logger log = 
+    Logger.getLogger(ResinShutdown.class.getName());
+
+  private final ResinEmbed _resin;
+  private final long _timeout;
+  private final List<String> _steps = new ArrayList<String>();
+  private Throwable _failure;
+
+  /**
+   * @param timeout milliseconds, 0 waits as long as the steps take
+   */
+  ResinShutdown(ResinEmbed resin, long timeout)
+  {
+    _resin = resin;
+    _timeout = timeout;
+  }
+
+  /**
+   * Returns whether Resin stopped gracefully within the timeout.
+   * 
+   * @throws ExecutionException if a step failed, after Resin was destroyed
+   */
+  boolean run(Collection<WebAppEmbed> webApplications)
+    throws InterruptedException, ExecutionException
+  {
+    ExecutorService executor = 
+      Executors.newCachedThreadPool(new DaemonThreadFactory("resin-embedded-shutdown"));
+
+    try {
+      long deadline = getDeadline();
+      List<Step> removals = new ArrayList<Step>();
+
+      for (final WebAppEmbed webApplication : webApplications) {
+        removals.add(new Step() {
+          @Override
+          void execute()
+          {
+            _resin.removeWebApp(webApplication);
+          }
+        });
+      }
+
+      boolean graceful = runStep("removeWebApps", removals, executor, deadline)
+        && runStep("stop", Collections.singletonList(new Step() {
+          @Override
+          void execute()
+          {
+            _resin.stop();
+          }
+        }), executor, deadline);
+
+      if (!graceful) {
+        log.warning(String.format("Resin 4 embedded container [%s] did not stop within %d ms or failed to, destroying it.", _resin.hashCode(), _timeout));
+      }
+
+      boolean destroyed = runStep("destroy", Collections.singletonList(new Step() {
+        @Override
+        void execute()
+        {
+          _resin.destroy();
+        }
+      }), executor, getDeadline());
+
+      if (_failure != null) {
+        throw new ExecutionException(String.format("Failed to stop Resin 4 embedded container [%s]: %s.", _resin.hashCode(), getSummary()), _failure);
+      }
+
+      return graceful && destroyed;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the time taken by each step, e.g. "stop=120 ms".
+   */
+  String getSummary()
+  {
+    StringBuilder summary = new StringBuilder();
+
+    for (String step : _steps) {
+      if (summary.length() > 0) {
+        summary.append(", ");
+      }
+
+      summary.append(step);
+    }
+
+    return summary.toString();
+  }
+
+  private long getDeadline()
+  {
+    return _timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeout) : 0;
+  }
+
+  /**
+   * Runs the tasks of a step in parallel and waits for them until the
+   * deadline, 0 for no deadline. Returns false if the deadline passed or a
+   * task failed, the first failure is kept.
+   */
+  private boolean runStep(String name, List<Step> tasks,
+                          ExecutorService executor, long deadline)
+    throws InterruptedException
+  {
+    long startTime = System.nanoTime();
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    boolean failed = false;
+
+    for (Step task : tasks) {
+      futures.add(executor.submit(task));
+    }
+
+    try {
+      for (Future<Void> future : futures) {
+        try {
+          if (deadline == 0) {
+            future.get();
+          } else {
+            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+          }
+        } catch (ExecutionException e) {
+          // The other tasks of the step still get their chance.
+          log.warning(String.format("Shutdown step %s of Resin 4 embedded container [%s] failed: %s", name, _resin.hashCode(), e.getCause()));
+
+          if (_failure == null) {
+            _failure = e.getCause();
+          }
+
+          failed = true;
+        }
+      }
+
+      _steps.add(String.format("%s%s%d ms", name, failed ? " failed after " : "=", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+
+      return !failed;
+    } catch (TimeoutException e) {
+      _steps.add(String.format("%s>%d ms", name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+
+      for (Step task : tasks) {
+        task.logStuck(name);
+      }
+
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+
+      return false;
+    }
+  }
+
+  /**
+   * Shutdown task that remembers the thread running it, so a stuck task
+   * can be diagnosed.
+   */
+  private abstract class Step implements Callable<Void> {
+    private volatile Thread _thread;
+    private volatile boolean _done;
+
+    abstract void execute();
+
+    /**
+     * @see Callable#call()
+     */
+    @Override
+    public Void call()
+    {
+      _thread = Thread.currentThread();
+
+      try {
+        execute();
+      } finally {
+        _done = true;
+      }
+
+      return null;
+    }
+
+    void logStuck(String name)
+    {
+      Thread thread = _thread;
+
+      if (thread == null || _done) {
+        return;
+      }
+
+      StringBuilder stack = new StringBuilder();
+
+      for (StackTraceElement element : thread.getStackTrace()) {
+        stack.append("\n\tat ").append(element);
+      }
+
+      log.warning(String.format("Shutdown step %s of Resin 4 embedded container [%s] is stuck in thread %s:%s", name, _resin.hashCode(), thread.getName(), stack));
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.ArchivePath;
+import org.jboss.shrinkwrap.api.Filter;
+import org.jboss.shrinkwrap.api.Node;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+
+/**
+ * Libraries loaded once by Resin's server class loader and shared by all
+ * deployments. Copies of them in a deployment's WEB-INF/lib, recognized by
+ * content hash, are left out of the deployment.
+ * 
+ * @version $Revision: $
+ */
+final class SharedLibraries {
+  /**
+   * Directory below the Resin root the server class loader loads JARs from.
+   */
+  static final String DIRECTORY = "ext-lib";
+
+  private static final String LIBRARY_PATH = "/WEB-INF/lib/";
+
+  // Library files by content hash.
+  private final Map<String, File> _libraries;
+
+  private SharedLibraries(Map<String, File> libraries)
+  {
+    _libraries = libraries;
+  }
+
+  /**
+   * Hashes the JARs of a comma separated list of JAR files and directories
+   * holding JARs.
+   * 
+   * @throws IOException if a listed file does not exist or cannot be read
+   */
+  static SharedLibraries create(String paths) throws IOException
+  {
+    Map<String, File> libraries = new LinkedHashMap<String, File>();
+
+    for (String path : paths.split(",")) {
+      path = path.trim();
+
+      if (path.length() == 0) {
+        continue;
+      }
+
+      for (File file : listLibraries(new File(path))) {
+        libraries.put(ArchiveDigest.createEntry(new FileInputStream(file)).getHash(), file);
+      }
+    }
+
+    return new SharedLibraries(libraries);
+  }
+
+  private static File[] listLibraries(File file) throws IOException
+  {
+    if (file.isFile()) {
+      return new File[] { file };
+    }
+
+    File[] files = file.listFiles();
+
+    if (files == null) {
+      throw new IOException(String.format("Shared library %s does not exist.", file));
+    }
+
+    Arrays.sort(files);
+
+    List<File> libraries = new ArrayList<File>();
+
+    for (File library : files) {
+      if (library.isFile() && library.getName().endsWith(".jar")) {
+        libraries.add(library);
+      }
+    }
+
+    return libraries.toArray(new File[libraries.size()]);
+  }
+
+  Collection<File> getFiles()
+  {
+    return _libraries.values();
+  }
+
+  /**
+   * Copies the libraries into the directory the server class loader of a
+   * Resin instance with the given root loads JARs from.
+   */
+  void install(File rootDirectory) throws IOException
+  {
+    File directory = new File(rootDirectory, DIRECTORY);
+    directory.mkdirs();
+
+    Set<String> names = new HashSet<String>();
+
+    for (File library : _libraries.values()) {
+      if (!names.add(library.getName())) {
+        throw new IOException(String.format("Two shared libraries are named %s, rename one of them.", library.getName()));
+      }
+
+      copy(library, new File(directory, library.getName()));
+    }
+  }
+
+  /**
+   * Returns the archive without the WEB-INF/lib JARs that are shared
+   * libraries, or the archive itself if it holds none. The archive is not
+   * modified.
+   */
+  Archive<?> strip(Archive<?> archive) throws IOException
+  {
+    final Set<ArchivePath> stripped = new HashSet<ArchivePath>();
+
+    for (Map.Entry<ArchivePath, Node> content : archive.getContent().entrySet()) {
+      String path = content.getKey().get();
+      Asset asset = content.getValue().getAsset();
+
+      if (asset != null && path.startsWith(LIBRARY_PATH) && path.endsWith(".jar")
+          && path.indexOf('/', LIBRARY_PATH.length()) < 0
+          && _libraries.containsKey(ArchiveDigest.createEntry(asset).getHash())) {
+        stripped.add(content.getKey());
+      }
+    }
+
+    if (stripped.isEmpty()) {
+      return archive;
+    }
+
+    return ShrinkWrap.create(WebArchive.class, archive.getName())
+      .merge(archive, new Filter<ArchivePath>() {
+        @Override
+        public boolean include(ArchivePath path)
+        {
+          return !stripped.contains(path);
+        }
+      });
+  }
+
+  private static void copy(File source, File target) throws IOException
+  {
+    FileInputStream in = new FileInputStream(source);
+
+    try {
+      FileOutputStream out = new FileOutputStream(target);
+
+      try {
+        FileChannel channel = in.getChannel();
+        long size = channel.size();
+        long position = 0;
+
+        while (position < size) {
+          position += channel.transferTo(position, size - position, out.getChannel());
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
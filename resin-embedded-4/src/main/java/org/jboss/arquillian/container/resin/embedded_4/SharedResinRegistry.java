@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.container.spi.client.container.LifecycleException;
+
+import com.caucho.resin.ResinEmbed;
+import com.caucho.resin.WebAppEmbed;
+
+/**
+ * JVM wide registry of running Resin instances shared between containers
+ * with the same configuration file and port. Instances are reference counted
+ * and kept running while idle so the next container with the same
+ * configuration does not pay for another server boot. They are shut down
+ * when the JVM exits.
+ * 
+ * @version $Revision: $
+ */
+final class SharedResinRegistry {
+  private static final Logger log = 
+    Logger.getLogger(SharedResinRegistry.class.getName());
+
+  // Servers by key, a future until the server has booted so other keys
+  // never wait for the boot.
+  private static final Map<String, Future<Server>> _servers = 
+    new HashMap<String, Future<Server>>();
+  private static boolean _shutdownHookRegistered;
+
+  private SharedResinRegistry()
+  {
+  }
+
+  /**
+   * Returns the registry key for a container configuration.
+   */
+  static String getKey(ResinEmbeddedConfiguration configuration)
+  {
+    String configurationFile = configuration.getConfigurationFile();
+
+    if (configurationFile != null) {
+      configurationFile = new File(configurationFile).getAbsolutePath();
+    } else if (ResinConfigurationGenerator.isRequired(configuration)) {
+      configurationFile = new ResinConfigurationGenerator(configuration).getDescription();
+    }
+
+    String port = configuration.getHttpPortRange() != null
+      ? configuration.getHttpPortRange()
+      : String.valueOf(configuration.getHttpPort());
+
+    if (configuration.getAdditionalHttpPorts() != null) {
+      port += "," + configuration.getAdditionalHttpPorts();
+    }
+
+    return configurationFile + ":" + port + ":" + configuration.getSharedLibraries();
+  }
+
+  /**
+   * Returns the shared server for the key, starting one with the factory if
+   * there is none yet, and adds a reference to it.
+   */
+  static Server acquire(String key, final ServerFactory factory)
+    throws LifecycleException
+  {
+    FutureTask<Server> boot = null;
+    Future<Server> future;
+
+    synchronized (SharedResinRegistry.class) {
+      future = _servers.get(key);
+
+      if (future == null) {
+        boot = new FutureTask<Server>(new Callable<Server>() {
+          @Override
+          public Server call() throws LifecycleException
+          {
+            return factory.create();
+          }
+        });
+
+        future = boot;
+        _servers.put(key, future);
+
+        registerShutdownHook();
+      }
+    }
+
+    // Boots outside the registry lock, containers with the same key wait
+    // for the future.
+    if (boot != null) {
+      boot.run();
+    }
+
+    Server server;
+
+    try {
+      server = getServer(future);
+    } catch (LifecycleException e) {
+      if (boot != null) {
+        synchronized (SharedResinRegistry.class) {
+          _servers.remove(key);
+        }
+      }
+
+      throw e;
+    }
+
+    if (boot == null) {
+      log.info(String.format("Reusing shared Resin 4 embedded container [%s] from working directory %s.", server.getResin().hashCode(), server.getWorkingDirectory().getAbsolutePath()));
+    }
+
+    synchronized (SharedResinRegistry.class) {
+      server._references++;
+    }
+
+    return server;
+  }
+
+  private static Server getServer(Future<Server> future)
+    throws LifecycleException
+  {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new LifecycleException("Interrupted while waiting for shared Resin 4 embedded container to start.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof LifecycleException) {
+        throw (LifecycleException) e.getCause();
+      }
+
+      throw new LifecycleException("Failed to start shared Resin 4 embedded container.", e.getCause());
+    }
+  }
+
+  /**
+   * Removes a reference to the shared server for the key and returns the
+   * number of references left. The server keeps running for later containers
+   * until the JVM exits.
+   */
+  static synchronized int release(String key)
+  {
+    Future<Server> future = _servers.get(key);
+    Server server = null;
+
+    if (future != null && future.isDone()) {
+      try {
+        server = getServer(future);
+      } catch (LifecycleException e) {
+        // Failed boots are removed by the container that started them.
+      }
+    }
+
+    if (server == null || server._references == 0) {
+      throw new IllegalStateException("Shared Resin 4 embedded container " + key + " is not in use.");
+    }
+
+    return --server._references;
+  }
+
+  private static void registerShutdownHook()
+  {
+    if (_shutdownHookRegistered) {
+      return;
+    }
+
+    Runtime.getRuntime().addShutdownHook(new Thread("resin-embedded-shared-shutdown") {
+      @Override
+      public void run()
+      {
+        shutdown();
+      }
+    });
+
+    _shutdownHookRegistered = true;
+  }
+
+  private static void shutdown()
+  {
+    List<Future<Server>> servers;
+
+    synchronized (SharedResinRegistry.class) {
+      servers = new ArrayList<Future<Server>>(_servers.values());
+      _servers.clear();
+    }
+
+    for (Future<Server> future : servers) {
+      Server server;
+
+      try {
+        // Waits for a boot still in progress.
+        server = getServer(future);
+      } catch (LifecycleException e) {
+        continue;
+      }
+
+      ResinEmbed resin = server.getResin();
+
+      log.info(String.format("Stopping shared Resin 4 embedded container [%s].", resin.hashCode()));
+
+      try {
+        ResinShutdown shutdown = new ResinShutdown(resin, server.getShutdownTimeout());
+
+        shutdown.run(Collections.<WebAppEmbed>emptyList());
+
+        log.info(String.format("Stopped shared Resin 4 embedded container [%s]: %s.", resin.hashCode(), shutdown.getSummary()));
+      } catch (Exception e) {
+        log.log(Level.WARNING, String.format("Failed to stop shared Resin 4 embedded container [%s].", resin.hashCode()), e);
+      }
+
+      try {
+        server.getWorkingDirectoryLock().release();
+        DirectoryCleaner.delete(server.getWorkingDirectory());
+      } catch (IOException e) {
+        log.log(Level.WARNING, String.format("Failed to remove working directory %s of shared Resin 4 embedded container [%s].", server.getWorkingDirectory(), resin.hashCode()), e);
+      }
+    }
+  }
+
+  /**
+   * Starts a new server for the registry.
+   */
+  interface ServerFactory {
+    Server create() throws LifecycleException;
+  }
+
+  /**
+   * A running Resin instance with its working directory.
+   */
+  static final class Server {
+    private final ResinEmbed _resin;
+    private final File _workingDirectory;
+    private final WorkingDirectoryLock _workingDirectoryLock;
+    private final int _httpPort;
+    private final long _shutdownTimeout;
+    private int _references;
+
+    Server(ResinEmbed resin, File workingDirectory,
+           WorkingDirectoryLock workingDirectoryLock, int httpPort,
+           long shutdownTimeout)
+    {
+      _resin = resin;
+      _workingDirectory = workingDirectory;
+      _workingDirectoryLock = workingDirectoryLock;
+      _httpPort = httpPort;
+      _shutdownTimeout = shutdownTimeout;
+    }
+
+    ResinEmbed getResin()
+    {
+      return _resin;
+    }
+
+    File getWorkingDirectory()
+    {
+      return _workingDirectory;
+    }
+
+    WorkingDirectoryLock getWorkingDirectoryLock()
+    {
+      return _workingDirectoryLock;
+    }
+
+    int getHttpPort()
+    {
+      return _httpPort;
+    }
+
+    long getShutdownTimeout()
+    {
+      return _shutdownTimeout;
+    }
+  }
+}
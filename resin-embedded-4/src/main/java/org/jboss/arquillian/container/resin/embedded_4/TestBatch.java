@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.arquillian.test.spi.TestResult;
+
+/**
+ * Tracks which test methods of the current test class ran in a batch and
+ * holds their results until the test runner asks for them. Results are
+ * dropped when a different test class or deployment starts.
+ * 
+ * @version $Revision: $
+ */
+final class TestBatch {
+  private static final Set<String> TEST_ANNOTATIONS = new HashSet<String>();
+  private static final Set<String> SKIP_ANNOTATIONS = new HashSet<String>();
+
+  static {
+    TEST_ANNOTATIONS.add("org.junit.Test");
+    TEST_ANNOTATIONS.add("org.testng.annotations.Test");
+
+    SKIP_ANNOTATIONS.add("org.junit.Ignore");
+    SKIP_ANNOTATIONS.add("org.jboss.arquillian.container.test.api.RunAsClient");
+  }
+
+  private Class<?> _testClass;
+  private URL _url;
+  private final Set<Method> _executed = new HashSet<Method>();
+  private final Map<Method, TestResult> _results = new HashMap<Method, TestResult>();
+
+  /**
+   * Returns and forgets the result of a method that ran in an earlier batch,
+   * or null if it has not run yet.
+   */
+  synchronized TestResult take(Class<?> testClass, URL url, Method method)
+  {
+    if (testClass != _testClass || !url.equals(_url)) {
+      _testClass = testClass;
+      _url = url;
+      _executed.clear();
+      _results.clear();
+    }
+
+    return _results.remove(method);
+  }
+
+  /**
+   * Returns the next batch of at most the given number of methods, 0 for no
+   * limit, starting with the given method and followed by the class's other
+   * test methods that have not run yet, by name. The methods are marked as
+   * run.
+   */
+  synchronized List<Method> next(Method method, int batchSize)
+  {
+    List<Method> batch = new ArrayList<Method>();
+    batch.add(method);
+
+    for (Method testMethod : getTestMethods(_testClass)) {
+      if (batchSize > 0 && batch.size() >= batchSize) {
+        break;
+      }
+
+      if (!testMethod.equals(method) && !_executed.contains(testMethod)) {
+        batch.add(testMethod);
+      }
+    }
+
+    _executed.addAll(batch);
+
+    return batch;
+  }
+
+  /**
+   * Stores the results of a batch. Methods without a result, e.g. because
+   * the response broke off, are marked as not run again.
+   */
+  synchronized void put(List<Method> methods, List<TestResult> results)
+  {
+    for (int i = 0; i < methods.size(); i++) {
+      if (i < results.size()) {
+        _results.put(methods.get(i), results.get(i));
+      } else {
+        _executed.remove(methods.get(i));
+      }
+    }
+  }
+
+  /**
+   * The public test methods of the class that run in the container, sorted
+   * by name. Overloaded methods are left out, as the container runs methods
+   * by name, and so is every method of a class that runs as client.
+   */
+  static List<Method> getTestMethods(Class<?> testClass)
+  {
+    List<Method> methods = new ArrayList<Method>();
+
+    if (hasAnnotation(testClass, SKIP_ANNOTATIONS)) {
+      return methods;
+    }
+
+    Map<String, Integer> overloads = new HashMap<String, Integer>();
+
+    for (Method method : testClass.getMethods()) {
+      Integer count = overloads.get(method.getName());
+      overloads.put(method.getName(), count == null ? 1 : count + 1);
+    }
+
+    for (Method method : testClass.getMethods()) {
+      if (hasAnnotation(method, TEST_ANNOTATIONS)
+          && !hasAnnotation(method, SKIP_ANNOTATIONS)
+          && overloads.get(method.getName()) == 1) {
+        methods.add(method);
+      }
+    }
+
+    Collections.sort(methods, new Comparator<Method>() {
+      @Override
+      public int compare(Method a, Method b)
+      {
+        return a.getName().compareTo(b.getName());
+      }
+    });
+
+    return methods;
+  }
+
+  // Matched by name, so neither JUnit nor TestNG needs to be present.
+  private static boolean hasAnnotation(AnnotatedElement element, 
+                                       Set<String> annotationNames)
+  {
+    for (Annotation annotation : element.getAnnotations()) {
+      if (annotationNames.contains(annotation.annotationType().getName())) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
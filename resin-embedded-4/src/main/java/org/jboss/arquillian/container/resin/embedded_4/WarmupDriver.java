@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends requests to deployed servlets until they run compiled code, so that
+ * tests do not measure class loading and interpretation.
+ * 
+ * @version $Revision: $
+ */
+final class WarmupDriver {
+  private static final Logger log = 
+    Logger.getLogger(WarmupDriver.class.getName());
+
+  // A request is considered steady if it takes at most this multiple of the
+  // steady latency.
+  private static final int STEADY_FACTOR = 2;
+
+  private static final int TIMEOUT = 30 * 1000;
+
+  private final int _requests;
+  private final int _concurrency;
+
+  WarmupDriver(int requests, int concurrency)
+  {
+    _requests = requests;
+    _concurrency = concurrency;
+  }
+
+  /**
+   * Returns the paths to warm up for the servlet URL patterns, relative to
+   * the context path. Exact and path patterns are used, extension patterns
+   * are skipped since no file name can be derived from them.
+   */
+  static Set<String> getPaths(Iterable<String> urlPatterns)
+  {
+    Set<String> paths = new LinkedHashSet<String>();
+
+    for (String urlPattern : urlPatterns) {
+      if (urlPattern.startsWith("/")) {
+        paths.add(urlPattern.endsWith("/*")
+                  ? urlPattern.substring(0, urlPattern.length() - 1)
+                  : urlPattern);
+      }
+    }
+
+    return paths;
+  }
+
+  /**
+   * Returns the URLs for a comma separated list of absolute URLs and paths
+   * relative to the given base URL.
+   */
+  static List<URL> parseUrls(String base, String urls)
+    throws MalformedURLException
+  {
+    List<URL> parsed = new ArrayList<URL>();
+
+    for (String url : urls.split(",")) {
+      url = url.trim();
+
+      if (url.contains("://")) {
+        parsed.add(new URL(url));
+      } else if (url.length() > 0) {
+        parsed.add(new URL(base + (url.startsWith("/") ? url : "/" + url)));
+      }
+    }
+
+    return parsed;
+  }
+
+  /**
+   * Warms up each of the URLs in turn and returns a result per URL.
+   */
+  List<Result> warmup(List<URL> urls) throws InterruptedException
+  {
+    List<Result> results = new ArrayList<Result>();
+    ExecutorService executor = 
+      Executors.newFixedThreadPool(_concurrency, new DaemonThreadFactory("resin-embedded-warmup"));
+
+    try {
+      for (URL url : urls) {
+        results.add(warmup(url, executor));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return results;
+  }
+
+  private Result warmup(final URL url, ExecutorService executor)
+    throws InterruptedException
+  {
+    final long[] latencies = new long[_requests];
+    final long[] completions = new long[_requests];
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+    final long start = System.nanoTime();
+
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+    for (int i = 0; i < _concurrency; i++) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call()
+        {
+          for (int request = next.getAndIncrement(); request < _requests;
+               request = next.getAndIncrement()) {
+            long begin = System.nanoTime();
+
+            if (!send(url)) {
+              failures.incrementAndGet();
+            }
+
+            long end = System.nanoTime();
+
+            latencies[request] = end - begin;
+            completions[request] = end - start;
+          }
+
+          return null;
+        }
+      });
+    }
+
+    for (Future<Void> future : executor.invokeAll(tasks)) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        log.log(Level.FINE, String.format("Warm-up of %s failed.", url), e.getCause());
+      }
+    }
+
+    return new Result(url, latencies, completions, failures.get());
+  }
+
+  /**
+   * Sends a GET request and reads the response fully, so the connection can
+   * be kept alive. Returns false if the request failed.
+   */
+  private static boolean send(URL url)
+  {
+    HttpURLConnection connection = null;
+
+    try {
+      connection = (HttpURLConnection) url.openConnection();
+      connection.setConnectTimeout(TIMEOUT);
+      connection.setReadTimeout(TIMEOUT);
+
+      // Error responses exercise the code as well.
+      InputStream in = connection.getResponseCode() < 400
+        ? connection.getInputStream()
+        : connection.getErrorStream();
+
+      if (in != null) {
+        drain(in);
+      }
+
+      return true;
+    } catch (IOException e) {
+      log.log(Level.FINEST, String.format("Warm-up request to %s failed.", url), e);
+
+      if (connection != null) {
+        connection.disconnect();
+      }
+
+      return false;
+    }
+  }
+
+  private static void drain(InputStream in) throws IOException
+  {
+    try {
+      byte[] buffer = new byte[8192];
+
+      while (in.read(buffer) >= 0) {
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Latencies of the warm-up requests to a URL.
+   */
+  static final class Result {
+    private final URL _url;
+    private final int _requests;
+    private final int _failures;
+    private final long _firstLatency;
+    private final long _steadyLatency;
+    private final long _timeToSteadyState;
+
+    Result(URL url, long[] latencies, long[] completions, int failures)
+    {
+      _url = url;
+      _requests = latencies.length;
+      _failures = failures;
+      _firstLatency = latencies.length > 0 ? latencies[0] : 0;
+      _steadyLatency = getSteadyLatency(latencies);
+
+      // Steady from the request following the last slow one.
+      long timeToSteadyState = 0;
+
+      for (int i = 0; i < latencies.length; i++) {
+        if (latencies[i] > _steadyLatency * STEADY_FACTOR) {
+          timeToSteadyState = Math.max(timeToSteadyState, completions[i]);
+        }
+      }
+
+      _timeToSteadyState = timeToSteadyState;
+    }
+
+    /**
+     * The median latency of the last quarter of the requests.
+     */
+    private static long getSteadyLatency(long[] latencies)
+    {
+      if (latencies.length == 0) {
+        return 0;
+      }
+
+      int from = latencies.length - Math.max(1, latencies.length / 4);
+      long[] tail = Arrays.copyOfRange(latencies, from, latencies.length);
+
+      Arrays.sort(tail);
+
+      return tail[tail.length / 2];
+    }
+
+    URL getUrl()
+    {
+      return _url;
+    }
+
+    int getFailures()
+    {
+      return _failures;
+    }
+
+    long getFirstLatency(TimeUnit unit)
+    {
+      return unit.convert(_firstLatency, TimeUnit.NANOSECONDS);
+    }
+
+    long getSteadyLatency(TimeUnit unit)
+    {
+      return unit.convert(_steadyLatency, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time from the start of the warm-up until the last request slower than
+     * twice the steady latency completed.
+     */
+    long getTimeToSteadyState(TimeUnit unit)
+    {
+      return unit.convert(_timeToSteadyState, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format("%s: %d requests, %d failed, first %d us, steady %d us, steady after %d ms", _url, _requests, _failures, getFirstLatency(TimeUnit.MICROSECONDS), getSteadyLatency(TimeUnit.MICROSECONDS), getTimeToSteadyState(TimeUnit.MILLISECONDS));
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Undeployed web applications kept running in Resin, by context path, so an
+ * identical archive deployed again reuses them instead of starting a new
+ * web application. The least recently parked ones are evicted when there
+ * are more than the maximum or when the heap is fuller than the limit, now
+ * and after the latest garbage collections.
+ * 
+ * @version $Revision: $
+ */
+final class WebAppPool {
+  private final int _maxSize;
+  private final int _heapLimit;
+  private final LinkedHashMap<String, ResinDeployment> _idle = 
+    new LinkedHashMap<String, ResinDeployment>();
+
+  /**
+   * @param heapLimit percentage of the maximum heap above which idle web
+   * applications are evicted
+   */
+  WebAppPool(int maxSize, int heapLimit)
+  {
+    _maxSize = maxSize;
+    _heapLimit = heapLimit;
+  }
+
+  /**
+   * Removes the idle web application of the context path. The caller reuses
+   * it if its digest matches and removes it from Resin otherwise.
+   */
+  synchronized ResinDeployment take(String contextPath)
+  {
+    return _idle.remove(contextPath);
+  }
+
+  /**
+   * Keeps the undeployed web application and returns the context paths of
+   * the idle ones to evict, oldest first. They stay in the pool until the
+   * caller takes them under the lock of their context path, so a concurrent
+   * deployment to that context path still finds them.
+   */
+  synchronized List<String> park(ResinDeployment deployment)
+  {
+    _idle.put(deployment.getContextPath(), deployment);
+
+    int excess = isHeapFull() ? _idle.size() : _idle.size() - _maxSize;
+    List<String> evicted = new ArrayList<String>();
+
+    for (String contextPath : _idle.keySet()) {
+      if (evicted.size() >= excess) {
+        break;
+      }
+
+      evicted.add(contextPath);
+    }
+
+    return evicted;
+  }
+
+  /**
+   * Removes and returns all idle web applications.
+   */
+  synchronized List<ResinDeployment> clear()
+  {
+    List<ResinDeployment> idle = new ArrayList<ResinDeployment>(_idle.values());
+
+    _idle.clear();
+
+    return idle;
+  }
+
+  private boolean isHeapFull()
+  {
+    Runtime runtime = Runtime.getRuntime();
+    long limit = runtime.maxMemory() / 100 * _heapLimit;
+    long used = runtime.totalMemory() - runtime.freeMemory();
+
+    // The heap in use includes garbage, only the heap left after the latest
+    // collections shows the live data that idle web applications hold.
+    return used > limit && getCollectedHeap() > limit;
+  }
+
+  /**
+   * Heap left in use after the latest collection of each heap pool, the
+   * current usage of pools that do not report it.
+   */
+  private static long getCollectedHeap()
+  {
+    long used = 0;
+
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() != MemoryType.HEAP || !pool.isValid()) {
+        continue;
+      }
+
+      MemoryUsage usage = pool.getCollectionUsage();
+
+      if (usage == null) {
+        usage = pool.getUsage();
+      }
+
+      used += usage.getUsed();
+    }
+
+    return used;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Lock on a lock file inside a working directory, held for as long as the
+ * directory is in use. The operating system releases the lock when the JVM
+ * dies, so a working directory whose lock can be acquired is left over from
+ * a crashed run.
+ * 
+ * @version $Revision: $
+ */
+final class WorkingDirectoryLock {
+  static final String LOCK_FILE = ".lock";
+
+  // Lock files younger than this may belong to a container that has not
+  // acquired its lock yet.
+  private static final long MINIMUM_AGE = 60 * 1000L;
+
+  // Directories locked in this JVM. Closing any channel on a lock file
+  // releases all locks of the JVM on it, so a lock file of this JVM must
+  // never be opened a second time.
+  private static final Set<File> _locked = new HashSet<File>();
+
+  private final File _directory;
+  private final RandomAccessFile _file;
+  private final FileLock _lock;
+
+  private WorkingDirectoryLock(File directory, RandomAccessFile file,
+                               FileLock lock)
+  {
+    _directory = directory;
+    _file = file;
+    _lock = lock;
+  }
+
+  /**
+   * Locks the working directory, returns null if the directory is locked by
+   * this or another JVM.
+   */
+  static WorkingDirectoryLock acquire(File directory) throws IOException
+  {
+    File key = directory.getCanonicalFile();
+
+    synchronized (_locked) {
+      if (!_locked.add(key)) {
+        return null;
+      }
+    }
+
+    RandomAccessFile file = null;
+    FileLock lock = null;
+
+    try {
+      file = new RandomAccessFile(new File(key, LOCK_FILE), "rw");
+
+      FileChannel channel = file.getChannel();
+      lock = channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Cannot happen while this JVM only locks through this class.
+    } finally {
+      if (lock == null) {
+        try {
+          if (file != null) {
+            file.close();
+          }
+        } finally {
+          synchronized (_locked) {
+            _locked.remove(key);
+          }
+        }
+      }
+    }
+
+    return lock == null ? null : new WorkingDirectoryLock(key, file, lock);
+  }
+
+  /**
+   * Returns true if the directory has a lock file old enough to be trusted,
+   * i.e. was created by a container that locks its working directory and has
+   * had time to do so. The lock itself is not checked.
+   */
+  static boolean hasSettledLockFile(File directory)
+  {
+    File lockFile = new File(directory, LOCK_FILE);
+
+    return lockFile.isFile()
+      && lockFile.lastModified() < System.currentTimeMillis() - MINIMUM_AGE;
+  }
+
+  void release() throws IOException
+  {
+    try {
+      _lock.release();
+    } finally {
+      try {
+        _file.close();
+      } finally {
+        synchronized (_locked) {
+          _locked.remove(_directory);
+        }
+      }
+    }
+  }
+}
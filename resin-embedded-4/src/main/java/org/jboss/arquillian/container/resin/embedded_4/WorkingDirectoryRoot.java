@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the directory working directories are created in and checks
+ * whether deployments fit on its file system.
+ * 
+ * @version $Revision: $
+ */
+final class WorkingDirectoryRoot {
+  private static final Logger log = 
+    Logger.getLogger(WorkingDirectoryRoot.class.getName());
+
+  // RAM-backed file systems tried in order for the memory root.
+  private static final String[] MEMORY_DIRECTORIES = { "/dev/shm", "/run/shm" };
+
+  // Space kept free on a memory root for Resin's own files.
+  private static final long HEADROOM = 16 * 1024 * 1024L;
+
+  private WorkingDirectoryRoot()
+  {
+  }
+
+  /**
+   * Returns the configured root: the current directory if none is set, a
+   * RAM-backed file system for the memory root, falling back to the current
+   * directory if there is none, or else the given directory.
+   */
+  static File resolve(String root)
+  {
+    if (root == null) {
+      return getDiskRoot();
+    }
+
+    if (ResinEmbeddedConfiguration.WORKING_DIRECTORY_ROOT_MEMORY.equals(root)) {
+      for (String memoryDirectory : MEMORY_DIRECTORIES) {
+        File directory = new File(memoryDirectory);
+
+        if (directory.isDirectory() && directory.canWrite()) {
+          return directory;
+        }
+      }
+
+      log.warning(String.format("No writable RAM-backed file system found, using %s for working directories.", getDiskRoot()));
+
+      return getDiskRoot();
+    }
+
+    File directory = new File(root).getAbsoluteFile();
+    directory.mkdirs();
+
+    return directory;
+  }
+
+  /**
+   * The current directory, where working directories are kept by default.
+   */
+  static File getDiskRoot()
+  {
+    return new File(System.getProperty("user.dir"));
+  }
+
+  /**
+   * Returns true if the given number of bytes can be written to the
+   * directory's file system, keeping some headroom.
+   */
+  static boolean fits(File directory, long size)
+  {
+    return directory.getUsableSpace() >= size + HEADROOM;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that archive digests depend only on the archive content.
+ *
+ * @version $Revision: $
+ */
+public class ArchiveDigestTestCase
+{
+   @Test
+   public void shouldDigestIdenticalArchivesAlike() throws Exception
+   {
+      ArchiveDigest first = ArchiveDigest.create(createArchive("first.war", "library"));
+
+      // Exported nested archives differ in their entry times.
+      Thread.sleep(2100);
+
+      ArchiveDigest second = ArchiveDigest.create(createArchive("second.war", "library"));
+
+      Assert.assertEquals(first.getDigest(), second.getDigest());
+      Assert.assertEquals(first.getEntries(), second.getEntries());
+   }
+
+   @Test
+   public void shouldDigestChangedNestedArchiveDifferently() throws Exception
+   {
+      ArchiveDigest first = ArchiveDigest.create(createArchive("test.war", "library"));
+      ArchiveDigest second = ArchiveDigest.create(createArchive("test.war", "changed"));
+
+      Assert.assertFalse(first.getDigest().equals(second.getDigest()));
+      Assert.assertEquals(first.getEntries().get("/index.html"), second.getEntries().get("/index.html"));
+      Assert.assertFalse(first.getEntries().get("/WEB-INF/lib/library.jar").equals(second.getEntries().get("/WEB-INF/lib/library.jar")));
+   }
+
+   @Test
+   public void shouldIgnoreEntryOrder() throws Exception
+   {
+      WebArchive first = ShrinkWrap.create(WebArchive.class, "test.war")
+         .add(new StringAsset("a"), "a.txt")
+         .add(new StringAsset("b"), "b.txt");
+      WebArchive second = ShrinkWrap.create(WebArchive.class, "test.war")
+         .add(new StringAsset("b"), "b.txt")
+         .add(new StringAsset("a"), "a.txt");
+
+      Assert.assertEquals(ArchiveDigest.create(first).getDigest(), ArchiveDigest.create(second).getDigest());
+   }
+
+   private static WebArchive createArchive(String name, String libraryContent)
+   {
+      JavaArchive library = ShrinkWrap.create(JavaArchive.class, "library.jar")
+         .add(new StringAsset(libraryContent), "META-INF/library.txt")
+         .add(new StringAsset("class"), "org/example/Library.class");
+
+      return ShrinkWrap.create(WebArchive.class, name)
+         .add(new StringAsset("index"), "index.html")
+         .addAsLibrary(library);
+   }
+}
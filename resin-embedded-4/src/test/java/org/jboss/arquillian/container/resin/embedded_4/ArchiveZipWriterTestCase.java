@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the ZIP files written for the archive deployment mode read back
+ * with java.util.zip, stored and deflated in parallel.
+ *
+ * @version $Revision: $
+ */
+public class ArchiveZipWriterTestCase
+{
+   private File directory;
+   private ExecutorService executor;
+
+   @Before
+   public void createDirectory()
+   {
+      directory = new File("target/archive-zip-writer-" + UUID.randomUUID());
+      directory.mkdirs();
+      executor = Executors.newFixedThreadPool(4);
+   }
+
+   @After
+   public void removeDirectory() throws Exception
+   {
+      executor.shutdownNow();
+      DirectoryCleaner.delete(directory);
+   }
+
+   @Test
+   public void shouldReadBackStoredEntries() throws Exception
+   {
+      assertRoundTrip(new ArchiveZipWriter(false, null), ZipEntry.STORED);
+   }
+
+   @Test
+   public void shouldReadBackEntriesDeflatedInParallel() throws Exception
+   {
+      assertRoundTrip(new ArchiveZipWriter(true, executor), ZipEntry.DEFLATED);
+   }
+
+   private void assertRoundTrip(ArchiveZipWriter writer, int method) throws IOException
+   {
+      Map<String, String> contents = new HashMap<String, String>();
+      WebArchive archive = ShrinkWrap.create(WebArchive.class, "test.war");
+
+      // More entries than one batch, one entry larger than the buffer and
+      // one streamed from its asset.
+      for (int i = 0; i < 40; i++)
+      {
+         contents.put("WEB-INF/classes/pkg/File" + i + ".txt", "content " + i);
+      }
+
+      StringBuilder large = new StringBuilder();
+
+      while (large.length() < 200 * 1024)
+      {
+         large.append("line ").append(large.length()).append('\n');
+      }
+
+      contents.put("large.txt", large.toString());
+
+      // Too large to be held in memory, even deflated.
+      StringBuilder huge = new StringBuilder();
+      Random random = new Random(0);
+
+      while (huge.length() < 3 * 1024 * 1024)
+      {
+         huge.append(Long.toHexString(random.nextLong()));
+      }
+
+      contents.put("huge.txt", huge.toString());
+      contents.put("empty.txt", "");
+
+      for (Map.Entry<String, String> content : contents.entrySet())
+      {
+         archive.add(new StringAsset(content.getValue()), content.getKey());
+      }
+
+      File file = new File(directory, "test.war");
+      writer.write(archive, file);
+
+      ZipFile zipFile = new ZipFile(file);
+
+      try
+      {
+         Map<String, String> read = new HashMap<String, String>();
+         Enumeration<? extends ZipEntry> entries = zipFile.entries();
+
+         while (entries.hasMoreElements())
+         {
+            ZipEntry entry = entries.nextElement();
+
+            if (entry.isDirectory())
+            {
+               Assert.assertTrue(entry.getName(), entry.getName().equals("WEB-INF/")
+                  || entry.getName().equals("WEB-INF/classes/")
+                  || entry.getName().equals("WEB-INF/classes/pkg/"));
+               continue;
+            }
+
+            byte[] data = readFully(zipFile.getInputStream(entry));
+            CRC32 crc = new CRC32();
+            crc.update(data);
+
+            Assert.assertEquals(entry.getName(), method, entry.getMethod());
+            Assert.assertEquals(entry.getName(), crc.getValue(), entry.getCrc());
+            Assert.assertEquals(entry.getName(), data.length, entry.getSize());
+            read.put(entry.getName(), new String(data, "UTF-8"));
+         }
+
+         Assert.assertEquals(contents, read);
+         Assert.assertNotNull(zipFile.getEntry("WEB-INF/classes/pkg/"));
+      }
+      finally
+      {
+         zipFile.close();
+      }
+
+      // The local headers must agree with the central directory as well.
+      ZipInputStream in = new ZipInputStream(new FileInputStream(file));
+      int count = 0;
+
+      try
+      {
+         for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry())
+         {
+            if (!entry.isDirectory())
+            {
+               Assert.assertEquals(entry.getName(), contents.get(entry.getName()), new String(readFully(in), "UTF-8"));
+            }
+
+            count++;
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+
+      Assert.assertEquals(contents.size() + 3, count);
+   }
+
+   private static byte[] readFully(InputStream in) throws IOException
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+
+      for (int length = in.read(buffer); length > 0; length = in.read(buffer))
+      {
+         out.write(buffer, 0, length);
+      }
+
+      return out.toByteArray();
+   }
+}
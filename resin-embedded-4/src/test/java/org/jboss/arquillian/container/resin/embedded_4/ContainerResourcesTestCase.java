@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * Tests reading the databases declared in a container resources fragment.
+ *
+ * @version $Revision: $
+ */
+public class ContainerResourcesTestCase
+{
+   private File directory;
+
+   @Before
+   public void createDirectory()
+   {
+      directory = new File("target/container-resources-" + UUID.randomUUID());
+      directory.mkdirs();
+   }
+
+   @After
+   public void removeDirectory() throws Exception
+   {
+      DirectoryCleaner.delete(directory);
+   }
+
+   @Test
+   public void shouldReadJndiNameElementsAndAttributes() throws Exception
+   {
+      File file = write("<resin xmlns=\"http://caucho.com/ns/resin\">\n"
+         + "  <database>\n"
+         + "    <jndi-name>jdbc/element</jndi-name>\n"
+         + "  </database>\n"
+         + "  <database jndi-name=\"jdbc/attribute\">\n"
+         + "    <driver type=\"org.h2.jdbcx.JdbcDataSource\"/>\n"
+         + "  </database>\n"
+         + "  <database/>\n"
+         + "</resin>\n");
+
+      ContainerResources resources = ContainerResources.create(file.getPath());
+
+      Assert.assertEquals(Arrays.asList("jdbc/element", "jdbc/attribute"), resources.getDataSources());
+   }
+
+   @Test
+   public void shouldKeepParseFailureAsCause() throws Exception
+   {
+      File file = write("<resin><database></resin>");
+
+      try
+      {
+         ContainerResources.create(file.getPath());
+         Assert.fail("Expected malformed resources to be rejected");
+      }
+      catch (IOException e)
+      {
+         Assert.assertTrue(e.getCause() instanceof SAXException);
+      }
+   }
+
+   private File write(String content) throws IOException
+   {
+      File file = new File(directory, "resources.xml");
+      OutputStream out = new FileOutputStream(file);
+
+      try
+      {
+         out.write(content.getBytes("UTF-8"));
+      }
+      finally
+      {
+         out.close();
+      }
+
+      return file;
+   }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the LRU behavior of the deployment directory cache.
+ *
+ * @version $Revision: $
+ */
+public class DeploymentCacheTestCase
+{
+   private File directory;
+
+   @Before
+   public void createDirectory()
+   {
+      directory = new File("target/deployment-cache-" + UUID.randomUUID());
+      directory.mkdirs();
+   }
+
+   @After
+   public void removeDirectory() throws Exception
+   {
+      DirectoryCleaner.delete(directory);
+   }
+
+   @Test
+   public void shouldReuseReleasedDirectory()
+   {
+      DeploymentCache cache = new DeploymentCache(2);
+      File first = createDeploymentDirectory("first");
+
+      Assert.assertNull(cache.acquire("a"));
+      Assert.assertTrue(cache.put("a", first));
+
+      // Still in use by the first deployment.
+      Assert.assertNull(cache.acquire("a"));
+
+      cache.release(first);
+
+      Assert.assertSame(first, cache.acquire("a"));
+      Assert.assertEquals(1, cache.getHits());
+      Assert.assertEquals(2, cache.getMisses());
+   }
+
+   @Test
+   public void shouldEvictLeastRecentlyUsedIdleDirectory()
+   {
+      DeploymentCache cache = new DeploymentCache(2);
+      File a = createDeploymentDirectory("a");
+      File b = createDeploymentDirectory("b");
+      File c = createDeploymentDirectory("c");
+
+      cache.put("a", a);
+      cache.put("b", b);
+      cache.release(a);
+      cache.release(b);
+
+      // Touch "a" so "b" becomes the eldest entry.
+      Assert.assertSame(a, cache.acquire("a"));
+      cache.release(a);
+
+      cache.put("c", c);
+
+      Assert.assertEquals(2, cache.size());
+      Assert.assertTrue(cache.contains(a));
+      Assert.assertFalse(cache.contains(b));
+      Assert.assertFalse(b.exists());
+   }
+
+   @Test
+   public void shouldNotEvictDirectoriesInUse()
+   {
+      DeploymentCache cache = new DeploymentCache(1);
+      File a = createDeploymentDirectory("a");
+      File b = createDeploymentDirectory("b");
+
+      cache.put("a", a);
+      cache.put("b", b);
+
+      Assert.assertEquals(2, cache.size());
+      Assert.assertTrue(a.exists());
+
+      cache.release(a);
+
+      Assert.assertEquals(1, cache.size());
+      Assert.assertFalse(a.exists());
+   }
+
+   @Test
+   public void shouldForgetRemovedDirectory()
+   {
+      DeploymentCache cache = new DeploymentCache(2);
+      File first = createDeploymentDirectory("first");
+      File second = createDeploymentDirectory("second");
+
+      cache.put("a", first);
+      cache.remove(first);
+
+      Assert.assertFalse(cache.contains(first));
+      Assert.assertNull(cache.acquire("a"));
+
+      // A new directory for the same digest is managed again.
+      Assert.assertTrue(cache.put("a", second));
+   }
+
+   private File createDeploymentDirectory(String name)
+   {
+      File deploymentDirectory = new File(directory, name);
+      deploymentDirectory.mkdirs();
+
+      return deploymentDirectory;
+   }
+}
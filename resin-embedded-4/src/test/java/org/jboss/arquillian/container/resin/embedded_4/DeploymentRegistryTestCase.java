@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Stress tests the deployment registry with many threads deploying and
+ * undeploying a few context paths.
+ *
+ * @version $Revision: $
+ */
+public class DeploymentRegistryTestCase
+{
+   private static final int THREADS = 32;
+   private static final int CONTEXT_PATHS = 4;
+   private static final int ITERATIONS = 2000;
+
+   private ExecutorService executor;
+
+   @Before
+   public void createExecutor()
+   {
+      executor = Executors.newFixedThreadPool(THREADS);
+   }
+
+   @After
+   public void shutdownExecutor()
+   {
+      executor.shutdownNow();
+   }
+
+   @Test
+   public void shouldDeployEachContextPathOnce() throws Exception
+   {
+      final DeploymentRegistry registry = new DeploymentRegistry();
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+      for (int i = 0; i < THREADS; i++)
+      {
+         final String contextPath = "/test" + (i % CONTEXT_PATHS);
+
+         results.add(executor.submit(new Callable<Boolean>()
+         {
+            public Boolean call() throws Exception
+            {
+               start.await();
+
+               try
+               {
+                  registry.put(createDeployment(contextPath));
+
+                  return true;
+               }
+               catch (IllegalStateException e)
+               {
+                  return false;
+               }
+            }
+         }));
+      }
+
+      start.countDown();
+
+      int deployed = 0;
+
+      for (Future<Boolean> result : results)
+      {
+         if (result.get())
+         {
+            deployed++;
+         }
+      }
+
+      Assert.assertEquals(CONTEXT_PATHS, deployed);
+      Assert.assertEquals(CONTEXT_PATHS, registry.getDeployments().size());
+   }
+
+   @Test
+   public void shouldSerializeDeploymentsPerContextPath() throws Exception
+   {
+      final DeploymentRegistry registry = new DeploymentRegistry();
+      final AtomicInteger[] holders = new AtomicInteger[CONTEXT_PATHS];
+      final AtomicInteger overlaps = new AtomicInteger();
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+      for (int i = 0; i < CONTEXT_PATHS; i++)
+      {
+         holders[i] = new AtomicInteger();
+      }
+
+      for (int i = 0; i < THREADS; i++)
+      {
+         final int index = i % CONTEXT_PATHS;
+         final String contextPath = "/test" + index;
+
+         results.add(executor.submit(new Callable<Integer>()
+         {
+            public Integer call() throws Exception
+            {
+               start.await();
+
+               // Deploys when the context path is free, undeploys otherwise.
+               int balance = 0;
+
+               for (int j = 0; j < ITERATIONS; j++)
+               {
+                  Lock lock = registry.getLock(contextPath);
+
+                  lock.lock();
+
+                  try
+                  {
+                     if (holders[index].incrementAndGet() > 1)
+                     {
+                        overlaps.incrementAndGet();
+                     }
+
+                     if (registry.get(contextPath) == null)
+                     {
+                        registry.put(createDeployment(contextPath));
+                        balance++;
+                     }
+                     else
+                     {
+                        Assert.assertNotNull(registry.remove(contextPath));
+                        balance--;
+                     }
+
+                     holders[index].decrementAndGet();
+                  }
+                  finally
+                  {
+                     lock.unlock();
+                  }
+               }
+
+               return balance;
+            }
+         }));
+      }
+
+      start.countDown();
+
+      int balance = 0;
+
+      for (Future<Integer> result : results)
+      {
+         balance += result.get();
+      }
+
+      Assert.assertEquals(0, overlaps.get());
+      Assert.assertEquals(registry.getDeployments().size(), balance);
+   }
+
+   private static ResinDeployment createDeployment(String contextPath)
+   {
+      return new ResinDeployment(contextPath, null, new File(contextPath.substring(1)), null, null);
+   }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that incremental deployment writes only added and changed entries
+ * and deletes removed ones.
+ *
+ * @version $Revision: $
+ */
+public class DeploymentSynchronizerTestCase
+{
+   private File directory;
+   private File deploymentDirectory;
+   private File manifestFile;
+
+   @Before
+   public void createDirectory()
+   {
+      directory = new File("target/deployment-synchronizer-" + UUID.randomUUID());
+      deploymentDirectory = new File(directory, "test");
+      deploymentDirectory.mkdirs();
+      manifestFile = new File(directory, "test.manifest");
+   }
+
+   @After
+   public void removeDirectory() throws Exception
+   {
+      DirectoryCleaner.delete(directory);
+   }
+
+   @Test
+   public void shouldWriteNothingForUnchangedArchive() throws Exception
+   {
+      Assert.assertEquals(3, synchronize(createArchive("1", "2", "3")));
+      Assert.assertTrue(manifestFile.exists());
+      Assert.assertEquals(0, synchronize(createArchive("1", "2", "3")));
+   }
+
+   @Test
+   public void shouldWriteChangedAndDeleteRemovedEntries() throws Exception
+   {
+      synchronize(createArchive("1", "2", "3"));
+
+      WebArchive archive = ShrinkWrap.create(WebArchive.class, "test.war")
+         .add(new StringAsset("1"), "a.txt")
+         .add(new StringAsset("22"), "b.txt")
+         .add(new StringAsset("4"), "d.txt");
+
+      // b.txt and d.txt written, dir/c.txt and dir deleted.
+      Assert.assertEquals(4, synchronize(archive));
+      Assert.assertEquals("1", read("a.txt"));
+      Assert.assertEquals("22", read("b.txt"));
+      Assert.assertEquals("4", read("d.txt"));
+      Assert.assertFalse(new File(deploymentDirectory, "dir/c.txt").exists());
+      Assert.assertFalse(new File(deploymentDirectory, "dir").exists());
+   }
+
+   @Test
+   public void shouldRewriteEverythingWithoutManifest() throws Exception
+   {
+      synchronize(createArchive("1", "2", "3"));
+
+      Assert.assertTrue(manifestFile.delete());
+      write("a.txt", "modified");
+
+      Assert.assertEquals(3, synchronize(createArchive("1", "2", "3")));
+      Assert.assertEquals("1", read("a.txt"));
+   }
+
+   @Test
+   public void shouldRewriteCorruptManifestEntries() throws Exception
+   {
+      synchronize(createArchive("1", "2", "3"));
+      writeManifest("/a.txt=garbage\n/b.txt=x:y\n/dir/c.txt=\n");
+      write("a.txt", "modified");
+
+      Assert.assertEquals(3, synchronize(createArchive("1", "2", "3")));
+      Assert.assertEquals("1", read("a.txt"));
+   }
+
+   @Test
+   public void shouldRewriteEverythingWithUnreadableManifest() throws Exception
+   {
+      synchronize(createArchive("1", "2", "3"));
+      writeManifest("/a.txt=\\uZZZZ\n");
+      write("a.txt", "modified");
+
+      Assert.assertEquals(3, synchronize(createArchive("1", "2", "3")));
+      Assert.assertEquals("1", read("a.txt"));
+   }
+
+   @Test
+   public void shouldRewriteEntriesMissingOnDisk() throws Exception
+   {
+      synchronize(createArchive("1", "2", "3"));
+
+      Assert.assertTrue(new File(deploymentDirectory, "b.txt").delete());
+
+      Assert.assertEquals(1, synchronize(createArchive("1", "2", "3")));
+      Assert.assertEquals("2", read("b.txt"));
+   }
+
+   private static WebArchive createArchive(String a, String b, String c)
+   {
+      return ShrinkWrap.create(WebArchive.class, "test.war")
+         .add(new StringAsset(a), "a.txt")
+         .add(new StringAsset(b), "b.txt")
+         .add(new StringAsset(c), "dir/c.txt");
+   }
+
+   private int synchronize(WebArchive archive) throws IOException
+   {
+      return DeploymentSynchronizer.synchronize(archive, ArchiveDigest.create(archive), deploymentDirectory, manifestFile, null);
+   }
+
+   private String read(String path) throws IOException
+   {
+      InputStream in = new FileInputStream(new File(deploymentDirectory, path));
+
+      try
+      {
+         byte[] buffer = new byte[1024];
+         int length = in.read(buffer);
+
+         return new String(buffer, 0, Math.max(length, 0), "UTF-8");
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   private void write(String path, String content) throws IOException
+   {
+      OutputStream out = new FileOutputStream(new File(deploymentDirectory, path));
+
+      try
+      {
+         out.write(content.getBytes("UTF-8"));
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   private void writeManifest(String content) throws IOException
+   {
+      OutputStream out = new FileOutputStream(manifestFile);
+
+      try
+      {
+         out.write(content.getBytes("ISO-8859-1"));
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests deletion of directory trees and the sweep of working directories
+ * left over from crashed runs.
+ *
+ * @version $Revision: $
+ */
+public class DirectoryCleanerTestCase
+{
+   private static final String PREFIX = "resin-work-";
+
+   private File root;
+
+   @Before
+   public void createRoot()
+   {
+      root = new File("target/directory-cleaner-" + UUID.randomUUID());
+      root.mkdirs();
+   }
+
+   @After
+   public void removeRoot() throws Exception
+   {
+      DirectoryCleaner.delete(root);
+   }
+
+   @Test
+   public void shouldDeleteTree() throws Exception
+   {
+      File tree = new File(root, "tree");
+
+      // More files than one batch, so they are deleted in parallel.
+      for (int i = 0; i < 600; i++)
+      {
+         createFile(new File(tree, "dir" + (i % 7) + "/sub/file" + i));
+      }
+
+      DirectoryCleaner.delete(tree);
+
+      Assert.assertFalse(tree.exists());
+   }
+
+   @Test
+   public void shouldDeleteInBackground() throws Exception
+   {
+      File tree = new File(root, "tree");
+
+      createFile(new File(tree, "a/b/c"));
+
+      DirectoryCleaner.deleteInBackground(tree);
+      DirectoryCleaner.awaitBackgroundDeletions();
+
+      Assert.assertFalse(tree.exists());
+   }
+
+   @Test
+   public void shouldSweepOnlyAbandonedWorkingDirectories() throws Exception
+   {
+      File abandoned = createWorkingDirectory(PREFIX + "abandoned", true);
+      File locked = createWorkingDirectory(PREFIX + "locked", true);
+      File starting = createWorkingDirectory(PREFIX + "starting", false);
+      File other = createWorkingDirectory("other", true);
+
+      WorkingDirectoryLock lock = WorkingDirectoryLock.acquire(locked);
+
+      try
+      {
+         DirectoryCleaner.sweepInBackground(root, PREFIX);
+         DirectoryCleaner.awaitBackgroundDeletions();
+
+         Assert.assertFalse(abandoned.exists());
+         Assert.assertTrue(new File(locked, "content").exists());
+         Assert.assertTrue(starting.exists());
+         Assert.assertTrue(other.exists());
+
+         // The sweep must not have released the lock of the live directory.
+         Assert.assertNull(WorkingDirectoryLock.acquire(locked));
+      }
+      finally
+      {
+         lock.release();
+      }
+
+      DirectoryCleaner.sweepInBackground(root, PREFIX);
+      DirectoryCleaner.awaitBackgroundDeletions();
+
+      Assert.assertFalse(locked.exists());
+   }
+
+   /**
+    * Creates a working directory with content and a lock file that is old
+    * enough to be trusted if settled is true.
+    */
+   private File createWorkingDirectory(String name, boolean settled) throws IOException
+   {
+      File directory = new File(root, name);
+      File lockFile = new File(directory, WorkingDirectoryLock.LOCK_FILE);
+
+      createFile(new File(directory, "content"));
+      createFile(lockFile);
+
+      if (settled)
+      {
+         Assert.assertTrue(lockFile.setLastModified(System.currentTimeMillis() - 10 * 60 * 1000L));
+      }
+
+      return directory;
+   }
+
+   private static void createFile(File file) throws IOException
+   {
+      file.getParentFile().mkdirs();
+
+      FileOutputStream out = new FileOutputStream(file);
+
+      try
+      {
+         out.write(1);
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+}
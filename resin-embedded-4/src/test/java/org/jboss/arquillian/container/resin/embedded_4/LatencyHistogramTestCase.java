@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the bucketing and percentiles of the latency histogram.
+ *
+ * @version $Revision: $
+ */
+public class LatencyHistogramTestCase
+{
+   @Test
+   public void shouldTrackSmallValuesExactly()
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+
+      for (int i = 1; i <= 100; i++)
+      {
+         histogram.record(i);
+      }
+
+      Assert.assertEquals(100, histogram.getCount());
+      Assert.assertEquals(1, histogram.getMin());
+      Assert.assertEquals(100, histogram.getMax());
+      Assert.assertEquals(50.5, histogram.getMean(), 0.001);
+      Assert.assertEquals(50, histogram.getValueAtPercentile(50));
+      Assert.assertEquals(99, histogram.getValueAtPercentile(99));
+      Assert.assertEquals(100, histogram.getValueAtPercentile(100));
+   }
+
+   @Test
+   public void shouldKeepRelativeErrorSmall()
+   {
+      for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1)
+      {
+         long highest = LatencyHistogram.getHighestValue(LatencyHistogram.getIndex(value));
+
+         Assert.assertTrue(highest >= value);
+         Assert.assertTrue((highest - value) <= value / 64);
+      }
+
+      Assert.assertEquals(Long.MAX_VALUE, LatencyHistogram.getHighestValue(LatencyHistogram.getIndex(Long.MAX_VALUE)));
+   }
+
+   @Test
+   public void shouldAddHistograms()
+   {
+      LatencyHistogram fast = new LatencyHistogram();
+      LatencyHistogram slow = new LatencyHistogram();
+
+      for (int i = 0; i < 990; i++)
+      {
+         fast.record(1000000);
+      }
+
+      for (int i = 0; i < 10; i++)
+      {
+         slow.record(50000000);
+      }
+
+      fast.add(slow);
+
+      Assert.assertEquals(1000, fast.getCount());
+      Assert.assertTrue(fast.getValueAtPercentile(99) <= 1000000 * 65 / 64);
+      Assert.assertEquals(50000000, fast.getValueAtPercentile(99.9));
+   }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that discarded class loaders pass leak detection and that strongly
+ * held ones are reported with their suspected references.
+ *
+ * @version $Revision: $
+ */
+public class LeakDetectorTestCase
+{
+   private final List<String> warnings = new ArrayList<String>();
+
+   private final Handler handler = new Handler()
+   {
+      @Override
+      public void publish(LogRecord record)
+      {
+         if (record.getLevel() == Level.WARNING)
+         {
+            warnings.add(record.getMessage());
+         }
+      }
+
+      @Override
+      public void flush()
+      {
+      }
+
+      @Override
+      public void close()
+      {
+      }
+   };
+
+   @Before
+   public void installHandler()
+   {
+      Logger.getLogger(LeakDetector.class.getName()).addHandler(handler);
+   }
+
+   @After
+   public void uninstallHandler()
+   {
+      Logger.getLogger(LeakDetector.class.getName()).removeHandler(handler);
+   }
+
+   @Test
+   public void shouldNotReportDiscardedClassLoader() throws Exception
+   {
+      LeakDetector detector = new LeakDetector(2);
+
+      detector.track("discarded", new URLClassLoader(new URL[0]));
+      detector.finish();
+
+      Assert.assertEquals(0, detector.getLeaked());
+      Assert.assertTrue(warnings.toString(), warnings.isEmpty());
+   }
+
+   @Test
+   public void shouldConfirmWithCollectionBeforeReporting() throws Exception
+   {
+      // Due right away, before any collection could have cleared it.
+      LeakDetector detector = new LeakDetector(0);
+
+      detector.track("discarded", new URLClassLoader(new URL[0]));
+      detector.check();
+
+      Assert.assertEquals(0, detector.getLeaked());
+      Assert.assertTrue(warnings.toString(), warnings.isEmpty());
+   }
+
+   @Test
+   public void shouldReportStronglyHeldClassLoader() throws Exception
+   {
+      LeakDetector detector = new LeakDetector(2);
+      URLClassLoader classLoader = new URLClassLoader(new URL[0]);
+      Thread thread = new Thread("leaking-thread")
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               Thread.sleep(60000);
+            }
+            catch (InterruptedException e)
+            {
+               // Done.
+            }
+         }
+      };
+
+      thread.setDaemon(true);
+      thread.setContextClassLoader(classLoader);
+      thread.start();
+
+      try
+      {
+         detector.track("held", classLoader);
+         detector.finish();
+
+         Assert.assertEquals(1, detector.getLeaked());
+         Assert.assertEquals(1, warnings.size());
+         Assert.assertTrue(warnings.get(0), warnings.get(0).contains("web application held is still reachable"));
+         Assert.assertTrue(warnings.get(0), warnings.get(0).contains("thread \"leaking-thread\""));
+      }
+      finally
+      {
+         thread.interrupt();
+      }
+   }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the request counts, concurrency and failure accounting of the load
+ * generator against a stub HTTP endpoint.
+ *
+ * @version $Revision: $
+ */
+public class LoadGeneratorTestCase
+{
+   private static final int CLIENTS = 4;
+
+   private HttpServer server;
+   private ExecutorService executor;
+   private LoadGenerator load;
+
+   private final AtomicInteger received = new AtomicInteger();
+   private final AtomicInteger active = new AtomicInteger();
+   private final AtomicInteger maxActive = new AtomicInteger();
+   private final CountDownLatch allClients = new CountDownLatch(CLIENTS);
+
+   @Before
+   public void startServer() throws Exception
+   {
+      executor = Executors.newCachedThreadPool();
+
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.setExecutor(executor);
+      server.createContext("/test/ok", new StubHandler(200, false));
+      server.createContext("/test/error", new StubHandler(500, false));
+      server.createContext("/test/concurrent", new StubHandler(200, true));
+      server.start();
+
+      load = new LoadGenerator("http://localhost:" + server.getAddress().getPort() + "/test/");
+   }
+
+   @After
+   public void stopServer()
+   {
+      server.stop(0);
+      executor.shutdownNow();
+   }
+
+   @Test
+   public void shouldSendRequestedNumberOfRequests() throws Exception
+   {
+      LoadResult result = load.runRequests("/ok", CLIENTS, 100);
+
+      Assert.assertEquals(100, result.getRequests());
+      Assert.assertEquals(0, result.getFailures());
+      Assert.assertEquals(100, received.get());
+      Assert.assertTrue(result.getThroughput() > 0);
+      Assert.assertTrue(result.getMinLatency(TimeUnit.NANOSECONDS) <= result.getMaxLatency(TimeUnit.NANOSECONDS));
+   }
+
+   @Test
+   public void shouldRunClientsConcurrently() throws Exception
+   {
+      LoadResult result = load.runRequests("concurrent", CLIENTS, 20);
+
+      Assert.assertEquals(20, result.getRequests());
+      Assert.assertEquals(0, result.getFailures());
+
+      // The first requests of all clients were in flight together, and
+      // never more than one per client.
+      Assert.assertEquals(0, allClients.getCount());
+      Assert.assertEquals(CLIENTS, maxActive.get());
+   }
+
+   @Test
+   public void shouldCountErrorStatusAsFailure() throws Exception
+   {
+      LoadResult result = load.runRequests("/error", 2, 10);
+
+      Assert.assertEquals(10, result.getRequests());
+      Assert.assertEquals(10, result.getFailures());
+      Assert.assertEquals(10, received.get());
+   }
+
+   @Test
+   public void shouldCountRefusedConnectionAsFailure() throws Exception
+   {
+      ServerSocket socket = new ServerSocket(0);
+      int port = socket.getLocalPort();
+      socket.close();
+
+      LoadResult result = new LoadGenerator("http://localhost:" + port).runRequests("/", 2, 10);
+
+      Assert.assertEquals(10, result.getRequests());
+      Assert.assertEquals(10, result.getFailures());
+   }
+
+   @Test
+   public void shouldStopAfterDuration() throws Exception
+   {
+      LoadResult result = load.runFor("/ok", 2, 200, TimeUnit.MILLISECONDS);
+
+      Assert.assertTrue(result.getDuration(TimeUnit.MILLISECONDS) >= 200);
+      Assert.assertTrue(result.getDuration(TimeUnit.MILLISECONDS) < 10000);
+      Assert.assertTrue(result.getRequests() > 0);
+      Assert.assertEquals(result.getRequests(), received.get());
+   }
+
+   @Test
+   public void shouldRejectRunWithoutClients() throws Exception
+   {
+      try
+      {
+         load.runRequests("/ok", 0, 10);
+         Assert.fail("Expected a run without clients to be rejected");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+   }
+
+   private final class StubHandler implements HttpHandler
+   {
+      private final int status;
+      private final boolean waitForClients;
+
+      StubHandler(int status, boolean waitForClients)
+      {
+         this.status = status;
+         this.waitForClients = waitForClients;
+      }
+
+      public void handle(HttpExchange exchange) throws IOException
+      {
+         received.incrementAndGet();
+
+         int current = active.incrementAndGet();
+
+         try
+         {
+            synchronized (maxActive)
+            {
+               maxActive.set(Math.max(maxActive.get(), current));
+            }
+
+            if (waitForClients)
+            {
+               // Holds each request until every client has one in flight.
+               allClients.countDown();
+               allClients.await(10, TimeUnit.SECONDS);
+            }
+
+            byte[] body = "stub".getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, body.length);
+
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         finally
+         {
+            active.decrementAndGet();
+         }
+      }
+   }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the ring buffer of captured log records and their attribution to a
+ * deployment.
+ *
+ * @version $Revision: $
+ */
+public class LogCaptureTestCase
+{
+   private static final Logger log = Logger.getLogger(LogCaptureTestCase.class.getName());
+
+   private File directory;
+   private LogCapture logCapture;
+
+   @Before
+   public void createDirectory()
+   {
+      directory = new File("target/log-capture-" + UUID.randomUUID());
+   }
+
+   @After
+   public void removeDirectory() throws Exception
+   {
+      if (logCapture != null)
+      {
+         logCapture.uninstall();
+      }
+
+      DirectoryCleaner.delete(directory);
+   }
+
+   @Test
+   public void shouldKeepLatestRecordsWhenWrappingAround() throws Exception
+   {
+      logCapture = new LogCapture("test.war", 3, directory);
+      logCapture.install();
+
+      for (int i = 1; i <= 5; i++)
+      {
+         log.info("message " + i);
+      }
+
+      Assert.assertEquals(list("message 3", "message 4", "message 5"), getMessages());
+      Assert.assertTrue(logCapture.getSummary(), logCapture.getSummary().startsWith("5 log records of web archive test.war captured, 2 overwritten, buffer of 3 records"));
+
+      File file = logCapture.dump("MyTest.shouldPass");
+
+      Assert.assertEquals(new File(new File(directory, "test.war"), "MyTest.shouldPass.log"), file);
+
+      String content = read(file);
+
+      Assert.assertFalse(content.contains("message 2"));
+      Assert.assertTrue(content.contains("message 3"));
+      Assert.assertTrue(content.contains("message 5"));
+   }
+
+   @Test
+   public void shouldAttributeRecordsToDeployingThreadAndClassLoader() throws Exception
+   {
+      logCapture = new LogCapture("test.war", 10, directory);
+      logCapture.install();
+
+      log.info("deploying");
+      logFromThread("other thread", null);
+
+      URLClassLoader webApplicationLoader = new URLClassLoader(new URL[0]);
+      logCapture.setClassLoader(webApplicationLoader);
+
+      // The deploying thread is done with the deployment now.
+      log.info("after deployment");
+      logFromThread("request", webApplicationLoader);
+      logFromThread("jsp", new URLClassLoader(new URL[0], webApplicationLoader));
+      logFromThread("other web application", new URLClassLoader(new URL[0]));
+
+      logCapture.uninstall();
+      logFromThread("after undeployment", webApplicationLoader);
+
+      Assert.assertEquals(list("deploying", "request", "jsp"), getMessages());
+   }
+
+   private static void logFromThread(final String message, ClassLoader contextClassLoader)
+      throws InterruptedException
+   {
+      Thread thread = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            log.info(message);
+         }
+      };
+
+      thread.setContextClassLoader(contextClassLoader);
+      thread.start();
+      thread.join();
+   }
+
+   private List<String> getMessages()
+   {
+      List<String> messages = new ArrayList<String>();
+
+      for (LogRecord record : logCapture.getRecords())
+      {
+         messages.add(record.getMessage());
+      }
+
+      return messages;
+   }
+
+   private static List<String> list(String... values)
+   {
+      List<String> list = new ArrayList<String>();
+
+      for (String value : values)
+      {
+         list.add(value);
+      }
+
+      return list;
+   }
+
+   private static String read(File file) throws Exception
+   {
+      InputStream in = new FileInputStream(file);
+
+      try
+      {
+         byte[] data = new byte[(int) file.length()];
+         int length = 0;
+
+         while (length < data.length)
+         {
+            length += in.read(data, length, data.length - length);
+         }
+
+         return new String(data, "UTF-8");
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+}
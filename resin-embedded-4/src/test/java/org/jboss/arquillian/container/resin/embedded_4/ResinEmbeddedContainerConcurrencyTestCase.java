@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.arquillian.container.spi.client.container.DeploymentException;
+import org.jboss.arquillian.container.spi.client.container.LifecycleException;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Stress tests a running Resin 4 embedded container with many threads
+ * deploying and undeploying a few context paths while it is stopped.
+ *
+ * @version $Revision: $
+ */
+public class ResinEmbeddedContainerConcurrencyTestCase
+{
+   private static final int THREADS = 8;
+   private static final int CONTEXT_PATHS = 4;
+   private static final int ITERATIONS = 5;
+
+   private File directory;
+   private ResinEmbeddedContainer container;
+   private ExecutorService executor;
+
+   @Before
+   public void startContainer() throws Exception
+   {
+      directory = new File("target/concurrency-" + UUID.randomUUID());
+      directory.mkdirs();
+
+      container = new ResinEmbeddedContainer();
+      container.setup(createConfiguration(0));
+      container.start();
+
+      executor = Executors.newFixedThreadPool(THREADS);
+   }
+
+   @After
+   public void stopContainer() throws Exception
+   {
+      executor.shutdownNow();
+
+      try
+      {
+         container.stop();
+      }
+      catch (LifecycleException e)
+      {
+         // Stopped by the test already.
+      }
+
+      DirectoryCleaner.delete(directory);
+   }
+
+   @Test
+   public void shouldDeployEachContextPathOnceAtATime() throws Exception
+   {
+      final CountDownLatch start = new CountDownLatch(1);
+      final AtomicInteger deployed = new AtomicInteger();
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+      for (int i = 0; i < THREADS; i++)
+      {
+         final WebArchive archive = createArchive("test" + (i % CONTEXT_PATHS));
+
+         results.add(executor.submit(new Callable<Void>()
+         {
+            public Void call() throws Exception
+            {
+               start.await();
+
+               for (int j = 0; j < ITERATIONS; j++)
+               {
+                  try
+                  {
+                     container.deploy(archive);
+                  }
+                  catch (DeploymentException e)
+                  {
+                     // Deployed by another thread right now.
+                     Assert.assertTrue(e.getMessage(), e.getMessage().contains("already deployed"));
+                     continue;
+                  }
+
+                  deployed.incrementAndGet();
+                  container.undeploy(archive);
+               }
+
+               return null;
+            }
+         }));
+      }
+
+      start.countDown();
+
+      for (Future<Void> result : results)
+      {
+         result.get();
+      }
+
+      Assert.assertTrue(deployed.get() >= CONTEXT_PATHS);
+
+      // Every context path was undeployed as often as it was deployed.
+      for (int i = 0; i < CONTEXT_PATHS; i++)
+      {
+         WebArchive archive = createArchive("test" + i);
+
+         container.deploy(archive);
+         container.undeploy(archive);
+      }
+   }
+
+   @Test
+   public void shouldRejectDeploymentsAfterConcurrentStop() throws Exception
+   {
+      final CountDownLatch deploying = new CountDownLatch(THREADS);
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+      for (int i = 0; i < THREADS; i++)
+      {
+         final WebArchive archive = createArchive("test" + i);
+
+         results.add(executor.submit(new Callable<Void>()
+         {
+            public Void call() throws Exception
+            {
+               deploying.countDown();
+
+               // Until stop() makes deployments fail.
+               while (true)
+               {
+                  try
+                  {
+                     container.deploy(archive);
+                  }
+                  catch (DeploymentException e)
+                  {
+                     Assert.assertTrue(e.getMessage(), e.getMessage().contains("STOPPING") || e.getMessage().contains("STOPPED"));
+                     return null;
+                  }
+
+                  try
+                  {
+                     container.undeploy(archive);
+                  }
+                  catch (DeploymentException e)
+                  {
+                     // Removed by stop() in the meantime.
+                     Assert.assertTrue(e.getMessage(), e.getMessage().contains("STOPPING") || e.getMessage().contains("STOPPED"));
+                     return null;
+                  }
+               }
+            }
+         }));
+      }
+
+      Assert.assertTrue(deploying.await(30, TimeUnit.SECONDS));
+
+      container.stop();
+
+      for (Future<Void> result : results)
+      {
+         result.get(30, TimeUnit.SECONDS);
+      }
+
+      try
+      {
+         container.deploy(createArchive("late"));
+         Assert.fail("Expected deployment to a stopped container to fail");
+      }
+      catch (DeploymentException e)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void shouldCleanUpAfterFailedStart() throws Exception
+   {
+      container.stop();
+
+      File root = new File(directory, "failed");
+      ServerSocket socket = new ServerSocket();
+
+      try
+      {
+         socket.bind(new InetSocketAddress(0));
+
+         ResinEmbeddedConfiguration configuration = createConfiguration(socket.getLocalPort());
+         configuration.setWorkingDirectoryRoot(root.getPath());
+         container.setup(configuration);
+
+         try
+         {
+            container.start();
+            Assert.fail("Expected start on a port in use to fail");
+         }
+         catch (LifecycleException e)
+         {
+            // expected
+         }
+      }
+      finally
+      {
+         socket.close();
+      }
+
+      // The working directory of the failed start is gone and its lock
+      // released, so the container starts again.
+      Assert.assertEquals(0, root.list().length);
+
+      container.setup(createConfiguration(0));
+      container.start();
+   }
+
+   private ResinEmbeddedConfiguration createConfiguration(int httpPort) throws Exception
+   {
+      ResinEmbeddedConfiguration configuration = new ResinEmbeddedConfiguration();
+      configuration.setHttpPort(httpPort);
+      configuration.setWorkingDirectoryRoot(directory.getPath());
+      configuration.validate();
+
+      return configuration;
+   }
+
+   private static WebArchive createArchive(String name)
+   {
+      return ShrinkWrap.create(WebArchive.class, name + ".war")
+         .add(new StringAsset(name), "index.html");
+   }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.jboss.arquillian.container.spi.client.container.DeploymentException;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.StringAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how a running Resin 4 embedded container writes out, reuses and
+ * removes the archives deployed to it.
+ *
+ * @version $Revision: $
+ */
+public class ResinEmbeddedContainerDeploymentTestCase
+{
+   private File directory;
+   private ResinEmbeddedContainer container;
+   private Logger logger;
+   private RecordingHandler handler;
+
+   @Before
+   public void createDirectory() throws Exception
+   {
+      directory = new File("target/deployment-" + UUID.randomUUID());
+      directory.mkdirs();
+
+      container = new ResinEmbeddedContainer();
+
+      logger = Logger.getLogger(ResinEmbeddedContainer.class.getName());
+      handler = new RecordingHandler();
+      logger.addHandler(handler);
+   }
+
+   @After
+   public void deleteDirectory() throws Exception
+   {
+      logger.removeHandler(handler);
+
+      try
+      {
+         container.stop();
+      }
+      catch (Exception e)
+      {
+         // Not started or stopped by the test already.
+      }
+
+      DirectoryCleaner.delete(directory);
+   }
+
+   @Test
+   public void shouldReuseCachedDeploymentOfSameArchive() throws Exception
+   {
+      ResinEmbeddedConfiguration configuration = createConfiguration();
+      configuration.setDeploymentMode(ResinEmbeddedConfiguration.DEPLOYMENT_MODE_EXPLODED);
+      configuration.setDeploymentCacheSize(4);
+
+      container.setup(configuration);
+      container.start();
+
+      container.deploy(createArchive("test"));
+      container.undeploy(createArchive("test"));
+
+      // Built again, as each test builds its own deployment.
+      container.deploy(createArchive("test"));
+      container.undeploy(createArchive("test"));
+
+      container.stop();
+
+      Assert.assertTrue(handler.getMessages().toString(), handler.contains("had 1 hits and 1 misses"));
+   }
+
+   @Test
+   public void shouldKeepExportedArchiveOfSameContent() throws Exception
+   {
+      ResinEmbeddedConfiguration configuration = createConfiguration();
+      configuration.setDeploymentMode(ResinEmbeddedConfiguration.DEPLOYMENT_MODE_ARCHIVE);
+
+      container.setup(configuration);
+      container.start();
+
+      container.deploy(createArchive("test"));
+      container.undeploy(createArchive("test"));
+
+      File warFile = findFile(directory, "test.war");
+      Assert.assertNotNull(warFile);
+      Assert.assertTrue(warFile.setLastModified(1000L));
+
+      container.deploy(createArchive("test"));
+      container.undeploy(createArchive("test"));
+
+      // Not written again.
+      Assert.assertEquals(1000L, warFile.lastModified());
+
+      container.deploy(createArchive("test").add(new StringAsset("changed"), "changed.html"));
+      container.undeploy(createArchive("test"));
+
+      // Written again as the content changed.
+      Assert.assertTrue(warFile.lastModified() != 1000L);
+   }
+
+   @Test
+   public void shouldRemoveFailedDeployment() throws Exception
+   {
+      ResinEmbeddedConfiguration configuration = createConfiguration();
+      configuration.setDeploymentMode(ResinEmbeddedConfiguration.DEPLOYMENT_MODE_EXPLODED);
+      configuration.setDeploymentCacheSize(4);
+      // Fails the warm-up after the web application was added to Resin.
+      configuration.setWarmupRequests(1);
+      configuration.setWarmupUrls("unknown://localhost/");
+
+      container.setup(configuration);
+      container.start();
+
+      for (int i = 0; i < 2; i++)
+      {
+         try
+         {
+            container.deploy(createArchive("test"));
+            Assert.fail("Expected the warm-up to fail");
+         }
+         catch (DeploymentException e)
+         {
+            // Not failing because the first attempt is still in Resin.
+            Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof MalformedURLException);
+         }
+      }
+
+      Assert.assertNull(findFile(directory, "index.html"));
+
+      container.stop();
+
+      // Neither attempt left a cached directory behind.
+      Assert.assertTrue(handler.getMessages().toString(), handler.contains("had 0 hits and 2 misses"));
+   }
+
+   @Test
+   public void shouldRemoveDeploymentsFromSharedServerOnStop() throws Exception
+   {
+      ResinEmbeddedConfiguration configuration = createConfiguration();
+      configuration.setReuseServer(true);
+      configuration.setWebAppReuse(1);
+
+      ResinEmbeddedContainer other = new ResinEmbeddedContainer();
+
+      container.setup(configuration);
+      container.start();
+      other.setup(configuration);
+      other.start();
+
+      try
+      {
+         // One idle web application kept for reuse and one deployed.
+         container.deploy(createArchive("idle"));
+         container.undeploy(createArchive("idle"));
+         container.deploy(createArchive("test"));
+
+         container.stop();
+
+         // Both context paths are free again on the running server.
+         other.deploy(createArchive("idle"));
+         other.deploy(createArchive("test"));
+         other.undeploy(createArchive("idle"));
+         other.undeploy(createArchive("test"));
+      }
+      finally
+      {
+         other.stop();
+      }
+   }
+
+   private ResinEmbeddedConfiguration createConfiguration() throws Exception
+   {
+      ResinEmbeddedConfiguration configuration = new ResinEmbeddedConfiguration();
+      configuration.setHttpPort(0);
+      configuration.setWorkingDirectoryRoot(directory.getPath());
+
+      return configuration;
+   }
+
+   private static File findFile(File directory, String name)
+   {
+      for (File file : directory.listFiles())
+      {
+         if (file.isDirectory())
+         {
+            File found = findFile(file, name);
+
+            if (found != null)
+            {
+               return found;
+            }
+         }
+         else if (file.getName().equals(name))
+         {
+            return file;
+         }
+      }
+
+      return null;
+   }
+
+   private static WebArchive createArchive(String name)
+   {
+      return ShrinkWrap.create(WebArchive.class, name + ".war")
+         .add(new StringAsset(name), "index.html");
+   }
+
+   private static final class RecordingHandler extends Handler
+   {
+      private final List<String> messages = new ArrayList<String>();
+
+      @Override
+      public synchronized void publish(LogRecord record)
+      {
+         messages.add(record.getMessage());
+      }
+
+      synchronized boolean contains(String text)
+      {
+         for (String message : messages)
+         {
+            if (message.contains(text))
+            {
+               return true;
+            }
+         }
+
+         return false;
+      }
+
+      synchronized List<String> getMessages()
+      {
+         return new ArrayList<String>(messages);
+      }
+
+      @Override
+      public void flush()
+      {
+      }
+
+      @Override
+      public void close()
+      {
+      }
+   }
+}
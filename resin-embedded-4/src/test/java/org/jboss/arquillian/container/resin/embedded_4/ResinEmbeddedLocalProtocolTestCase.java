@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 1998-2010 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.util.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.naming.InitialContext;
+import javax.sql.DataSource;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.OverProtocol;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.EmptyAsset;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.caucho.server.webapp.WebApp;
+
+/**
+ * In-container test case for the Resin Local protocol, which runs the test
+ * methods in the test JVM without an HTTP request.
+ *
+ * @version $Revision: $
+ */
+@RunWith(Arquillian.class)
+public class ResinEmbeddedLocalProtocolTestCase
+{
+   private static final Logger log = Logger.getLogger(ResinEmbeddedLocalProtocolTestCase.class.getName());
+
+   /**
+    * Deployment for the test.
+    *
+    * @return test web archive
+    */
+   @Deployment
+   @OverProtocol("Resin Local")
+   public static WebArchive getTestArchive()
+   {
+      final WebArchive war = ShrinkWrap.create(WebArchive.class, "local.war")
+         .addClass(MyBean.class)
+         .addAsWebInfResource("resin-env.xml", "resin-web.xml")
+         .addAsWebInfResource(EmptyAsset.INSTANCE, "beans.xml")
+         .setWebXML("in-container-web.xml");
+      log.info("Created war file: " + war.getName());
+      return war;
+   }
+
+   // defined in resin-env.xml
+   @Resource(mappedName = "java:comp/env/version")
+   Integer version;
+
+   // defined in web.xml, scoped to webapp (relative to java:comp/env)
+   @Resource(name = "name")
+   String name;
+
+   @Resource(name = "jdbc/test")
+   DataSource ds;
+
+   @Inject
+   MyBean testBean;
+
+   @Test
+   public void shouldRunWithWebApplicationClassLoader() throws Exception
+   {
+      ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+      WebApp webApplication = WebApp.getCurrent();
+
+      Assert.assertNotNull(webApplication);
+      Assert.assertEquals("/local", webApplication.getContextPath());
+      Assert.assertSame(webApplication.getClassLoader(), contextClassLoader);
+      Assert.assertNotSame(getClass().getClassLoader(), contextClassLoader);
+
+      // JNDI resolves against the web application's java:comp namespace.
+      Assert.assertEquals("Resin", new InitialContext().lookup("java:comp/env/name"));
+   }
+
+   @Test
+   public void shouldInjectBeans() throws Exception
+   {
+      Assert.assertNotNull(testBean);
+      Assert.assertEquals("Resin", testBean.getName());
+   }
+
+   @Test
+   public void shouldInjectResources() throws Exception
+   {
+      Assert.assertEquals(new Integer(4), version);
+      Assert.assertEquals("Resin", name);
+      Assert.assertNotNull(ds);
+   }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.caucho.resin.ResinEmbed;
+import com.caucho.resin.WebAppEmbed;
+
+/**
+ * Tests that Resin is destroyed however its shutdown steps end.
+ *
+ * @version $Revision: $
+ */
+public class ResinShutdownTestCase
+{
+   @Test
+   public void shouldDestroyAndRethrowAfterFailedRemoval() throws Exception
+   {
+      final IllegalStateException failure = new IllegalStateException("removal failed");
+      RecordingResin resin = new RecordingResin()
+      {
+         @Override
+         public void removeWebApp(WebAppEmbed webApplication)
+         {
+            super.removeWebApp(webApplication);
+
+            throw failure;
+         }
+      };
+
+      ResinShutdown shutdown = new ResinShutdown(resin, 0);
+
+      try
+      {
+         shutdown.run(Arrays.asList(new WebAppEmbed(), new WebAppEmbed()));
+         Assert.fail("Expected the failed removal to be rethrown");
+      }
+      catch (ExecutionException e)
+      {
+         Assert.assertSame(failure, e.getCause());
+      }
+
+      // Both removals ran, the failure skipped stop() but not destroy().
+      Assert.assertEquals(2, resin.removed);
+      Assert.assertFalse(resin.stopped);
+      Assert.assertTrue(resin.destroyed);
+      Assert.assertTrue(shutdown.getSummary(), shutdown.getSummary().contains("removeWebApps failed"));
+   }
+
+   @Test
+   public void shouldDestroyAfterFailedStop() throws Exception
+   {
+      RecordingResin resin = new RecordingResin()
+      {
+         @Override
+         public void stop()
+         {
+            throw new IllegalStateException("stop failed");
+         }
+      };
+
+      try
+      {
+         new ResinShutdown(resin, 0).run(Collections.<WebAppEmbed>emptyList());
+         Assert.fail("Expected the failed stop to be rethrown");
+      }
+      catch (ExecutionException e)
+      {
+         Assert.assertEquals("stop failed", e.getCause().getMessage());
+      }
+
+      Assert.assertTrue(resin.destroyed);
+   }
+
+   @Test
+   public void shouldDestroyAfterTimeout() throws Exception
+   {
+      final CountDownLatch release = new CountDownLatch(1);
+      RecordingResin resin = new RecordingResin()
+      {
+         @Override
+         public void stop()
+         {
+            try
+            {
+               release.await();
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+      };
+
+      try
+      {
+         Assert.assertFalse(new ResinShutdown(resin, 100).run(Collections.<WebAppEmbed>emptyList()));
+         Assert.assertTrue(resin.destroyed);
+      }
+      finally
+      {
+         release.countDown();
+      }
+   }
+
+   private static class RecordingResin extends ResinEmbed
+   {
+      volatile int removed;
+      volatile boolean stopped;
+      volatile boolean destroyed;
+
+      @Override
+      public synchronized void removeWebApp(WebAppEmbed webApplication)
+      {
+         removed++;
+      }
+
+      @Override
+      public void stop()
+      {
+         stopped = true;
+      }
+
+      @Override
+      public void destroy()
+      {
+         destroyed = true;
+      }
+   }
+}
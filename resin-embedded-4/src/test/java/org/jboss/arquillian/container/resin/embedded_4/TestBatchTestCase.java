@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.arquillian.container.test.api.RunAsClient;
+import org.jboss.arquillian.test.spi.TestResult;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests the method selection and result bookkeeping of test batches.
+ *
+ * @version $Revision: $
+ */
+public class TestBatchTestCase
+{
+   public static class Sample
+   {
+      @Test
+      public void c()
+      {
+      }
+
+      @Test
+      public void a()
+      {
+      }
+
+      @Test
+      @Ignore
+      public void ignored()
+      {
+      }
+
+      @Test
+      @RunAsClient
+      public void client()
+      {
+      }
+
+      @Test
+      public void b()
+      {
+      }
+
+      @Test
+      public void overloaded()
+      {
+      }
+
+      @Test
+      public void overloaded(String parameter)
+      {
+      }
+
+      public void helper()
+      {
+      }
+   }
+
+   @RunAsClient
+   public static class ClientSample
+   {
+      @Test
+      public void a()
+      {
+      }
+   }
+
+   @Test
+   public void shouldFindTestMethodsByName() throws Exception
+   {
+      Assert.assertEquals(Arrays.asList(method("a"), method("b"), method("c")), TestBatch.getTestMethods(Sample.class));
+   }
+
+   @Test
+   public void shouldSkipClassRunningAsClient()
+   {
+      Assert.assertEquals(Collections.emptyList(), TestBatch.getTestMethods(ClientSample.class));
+   }
+
+   @Test
+   public void shouldBatchRemainingMethods() throws Exception
+   {
+      TestBatch batch = new TestBatch();
+      URL url = new URL("http://localhost:8086/test/arquillian-resin-batch");
+
+      Assert.assertNull(batch.take(Sample.class, url, method("b")));
+      Assert.assertEquals(Arrays.asList(method("b"), method("a")), batch.next(method("b"), 2));
+
+      batch.put(Arrays.asList(method("b"), method("a")), Arrays.asList(new TestResult(), new TestResult()));
+
+      Assert.assertNotNull(batch.take(Sample.class, url, method("a")));
+      Assert.assertNull(batch.take(Sample.class, url, method("c")));
+      Assert.assertEquals(Arrays.asList(method("c")), batch.next(method("c"), 2));
+   }
+
+   @Test
+   public void shouldKeepOverloadedMethodsApart() throws Exception
+   {
+      TestBatch batch = new TestBatch();
+      URL url = new URL("http://localhost:8086/test/arquillian-resin-batch");
+      Method overloaded = Sample.class.getMethod("overloaded", String.class);
+
+      batch.take(Sample.class, url, overloaded);
+
+      // Without its namesake, which the container could not tell apart.
+      Assert.assertEquals(Arrays.asList(overloaded, method("a"), method("b"), method("c")), batch.next(overloaded, 0));
+      Assert.assertEquals(Arrays.asList(method("overloaded")), batch.next(method("overloaded"), 0));
+   }
+
+   @Test
+   public void shouldRunMissingResultsAgain() throws Exception
+   {
+      TestBatch batch = new TestBatch();
+      URL url = new URL("http://localhost:8086/test/arquillian-resin-batch");
+
+      batch.take(Sample.class, url, method("a"));
+      List<Method> methods = batch.next(method("a"), 0);
+
+      Assert.assertEquals(Arrays.asList(method("a"), method("b"), method("c")), methods);
+
+      batch.put(methods, Collections.singletonList(new TestResult()));
+
+      Assert.assertNull(batch.take(Sample.class, url, method("b")));
+      Assert.assertEquals(Arrays.asList(method("b"), method("c")), batch.next(method("b"), 0));
+   }
+
+   private static Method method(String name) throws Exception
+   {
+      return Sample.class.getMethod(name);
+   }
+}
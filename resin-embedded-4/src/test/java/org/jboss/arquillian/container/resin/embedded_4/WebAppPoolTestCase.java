@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the eviction order of idle web applications.
+ *
+ * @version $Revision: $
+ */
+public class WebAppPoolTestCase
+{
+   @Test
+   public void shouldEvictOldestBeyondMaximum()
+   {
+      WebAppPool pool = new WebAppPool(2, 100);
+
+      Assert.assertEquals(Collections.emptyList(), pool.park(createDeployment("/a")));
+      Assert.assertEquals(Collections.emptyList(), pool.park(createDeployment("/b")));
+      Assert.assertEquals(Arrays.asList("/a"), pool.park(createDeployment("/c")));
+
+      // Evicted context paths stay until taken.
+      Assert.assertNotNull(pool.take("/a"));
+      Assert.assertEquals(Arrays.asList("/b"), pool.park(createDeployment("/d")));
+      Assert.assertEquals(Arrays.asList("/b", "/c"), pool.park(createDeployment("/e")));
+   }
+
+   @Test
+   public void shouldTakeEachWebApplicationOnce()
+   {
+      WebAppPool pool = new WebAppPool(2, 100);
+
+      pool.park(createDeployment("/a"));
+
+      Assert.assertEquals("/a", pool.take("/a").getContextPath());
+      Assert.assertNull(pool.take("/a"));
+      Assert.assertTrue(pool.clear().isEmpty());
+   }
+
+   @Test
+   public void shouldEvictAllWhenHeapIsFull()
+   {
+      WebAppPool pool = new WebAppPool(2, 0);
+
+      // Any heap still in use after a collection is above the limit.
+      System.gc();
+
+      Assert.assertEquals(Arrays.asList("/a"), pool.park(createDeployment("/a")));
+      Assert.assertEquals(Arrays.asList("/a", "/b"), pool.park(createDeployment("/b")));
+   }
+
+   private static ResinDeployment createDeployment(String contextPath)
+   {
+      return new ResinDeployment(contextPath, null, new File(contextPath.substring(1)), "digest", null);
+   }
+}
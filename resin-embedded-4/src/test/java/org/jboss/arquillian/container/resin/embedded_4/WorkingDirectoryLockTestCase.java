@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 1998-2011 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ *
+ * JBoss, Home of Professional Open Source
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.arquillian.container.resin.embedded_4;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that working directory locks exclude containers in this and other
+ * JVMs.
+ *
+ * @version $Revision: $
+ */
+public class WorkingDirectoryLockTestCase
+{
+   private File directory;
+
+   @Before
+   public void createDirectory()
+   {
+      directory = new File("target/working-directory-lock-" + UUID.randomUUID());
+      directory.mkdirs();
+   }
+
+   @After
+   public void removeDirectory() throws Exception
+   {
+      DirectoryCleaner.delete(directory);
+   }
+
+   @Test
+   public void shouldLockOncePerJvm() throws Exception
+   {
+      WorkingDirectoryLock lock = WorkingDirectoryLock.acquire(directory);
+
+      Assert.assertNotNull(lock);
+      Assert.assertNull(WorkingDirectoryLock.acquire(directory));
+      Assert.assertNull(WorkingDirectoryLock.acquire(new File(directory, "../" + directory.getName())));
+
+      lock.release();
+
+      lock = WorkingDirectoryLock.acquire(directory);
+
+      Assert.assertNotNull(lock);
+
+      lock.release();
+   }
+
+   @Test
+   public void shouldKeepLockAfterFailedAcquire() throws Exception
+   {
+      WorkingDirectoryLock lock = WorkingDirectoryLock.acquire(directory);
+
+      try
+      {
+         Assert.assertNull(WorkingDirectoryLock.acquire(directory));
+
+         // Another JVM must still see the directory as locked.
+         Assert.assertEquals(1, tryLockInOtherJvm());
+      }
+      finally
+      {
+         lock.release();
+      }
+
+      Assert.assertEquals(0, tryLockInOtherJvm());
+   }
+
+   private int tryLockInOtherJvm() throws Exception
+   {
+      String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+      Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                           WorkingDirectoryLockTestCase.class.getName(),
+                                           new File(directory, WorkingDirectoryLock.LOCK_FILE).getAbsolutePath())
+         .redirectErrorStream(true)
+         .start();
+
+      return process.waitFor();
+   }
+
+   /**
+    * Exits with 0 if the lock file given as argument can be locked, 1
+    * otherwise.
+    */
+   public static void main(String[] args) throws Exception
+   {
+      RandomAccessFile file = new RandomAccessFile(args[0], "rw");
+
+      try
+      {
+         FileLock lock = file.getChannel().tryLock();
+
+         System.exit(lock != null ? 0 : 1);
+      }
+      finally
+      {
+         file.close();
+      }
+   }
+}